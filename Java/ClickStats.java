@@ -0,0 +1,227 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-code redirect counters. A hit is a LongAdder increment in the current minute's bucket,
+ * found by a ConcurrentHashMap read, so concurrent redirects never take a lock or wait on I/O.
+ *
+ * A ticker thread drains each finished minute (one minute late, so stragglers still land),
+ * appends its counts to url_mappings.clicks as "M,epochMinute,code,count" records, adds them to
+ * the hour rollup (written as "H,epochHour,code,count" when the hour ends) and to a sliding
+ * one-hour window. top() only looks at codes clicked in the last hour, never at every code.
+ */
+class ClickStats implements Closeable {
+    private static final class Bucket {
+        final long minute;
+        final ConcurrentHashMap<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+        Bucket(long minute) {
+            this.minute = minute;
+        }
+    }
+
+    private final Path file;
+    private final ConcurrentLinkedDeque<Bucket> live = new ConcurrentLinkedDeque<>();
+    private volatile Bucket current;
+    // drained minutes still inside the window, oldest first, and their per-code sum
+    private final ArrayDeque<Bucket> window = new ArrayDeque<>();
+    private final Map<String, long[]> windowCounts = new HashMap<>();
+    private final Map<String, long[]> hourCounts = new HashMap<>();
+    private long hour = -1;
+    private FileChannel channel; // append-only, opened by the first drain that has records; guarded by this
+    private final Thread ticker;
+    private volatile boolean closed;
+
+    ClickStats(Path file) {
+        this.file = file;
+        replay();
+        this.ticker = new Thread(this::tickLoop, "click-flusher");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    void record(String code) {
+        long minute = System.currentTimeMillis() / 60_000;
+        Bucket b = current;
+        if (b == null || b.minute != minute) b = roll(minute);
+        LongAdder a = b.counts.get(code);
+        if (a == null) a = b.counts.computeIfAbsent(code, k -> new LongAdder());
+        a.increment();
+    }
+
+    private synchronized Bucket roll(long minute) {
+        Bucket b = current;
+        if (b != null && b.minute >= minute) return b; // another thread rolled, or the clock stepped back
+        b = new Bucket(minute);
+        live.addLast(b);
+        current = b;
+        return b;
+    }
+
+    // The n most-clicked codes in the last 60 minutes, most clicked first.
+    synchronized List<Map.Entry<String, Long>> top(int n) {
+        Map<String, long[]> totals = new HashMap<>(windowCounts.size() * 2);
+        for (Map.Entry<String, long[]> e : windowCounts.entrySet()) totals.put(e.getKey(), new long[] {e.getValue()[0]});
+        long oldest = System.currentTimeMillis() / 60_000 - 59;
+        for (Bucket b : live) {
+            if (b.minute < oldest) continue;
+            b.counts.forEach((code, a) -> totals.computeIfAbsent(code, k -> new long[1])[0] += a.sum());
+        }
+        PriorityQueue<Map.Entry<String, Long>> heap = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (Map.Entry<String, long[]> e : totals.entrySet()) {
+            long c = e.getValue()[0];
+            if (heap.size() < n) heap.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), c));
+            else if (n > 0 && c > heap.peek().getValue()) {
+                heap.poll();
+                heap.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), c));
+            }
+        }
+        List<Map.Entry<String, Long>> result = new ArrayList<>(heap);
+        result.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return result;
+    }
+
+    private void tickLoop() {
+        while (!closed) {
+            try {
+                Thread.sleep(1_000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            drain(System.currentTimeMillis() / 60_000 - 1);
+        }
+    }
+
+    // Moves every live bucket older than `before` into the file and the rollups.
+    private synchronized void drain(long before) {
+        StringBuilder out = new StringBuilder();
+        for (Bucket b = live.peekFirst(); b != null && b.minute < before; b = live.peekFirst()) {
+            live.pollFirst();
+            if (b.minute / 60 != hour) out.append(closeHour(b.minute / 60));
+            long minute = b.minute;
+            b.counts.forEach((code, a) -> {
+                long c = a.sum();
+                out.append("M,").append(minute).append(',').append(URLShortener.csvField(code)).append(',').append(c).append('\n');
+                hourCounts.computeIfAbsent(code, k -> new long[1])[0] += c;
+            });
+            addToWindow(b.minute, b.counts);
+        }
+        expireWindow(System.currentTimeMillis() / 60_000 - 59);
+        append(out);
+    }
+
+    // Ends the hour rollup in progress and starts a new one; returns its H records.
+    private String closeHour(long next) {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, long[]> e : hourCounts.entrySet()) {
+            out.append("H,").append(hour).append(',').append(URLShortener.csvField(e.getKey())).append(',').append(e.getValue()[0]).append('\n');
+        }
+        hourCounts.clear();
+        hour = next;
+        return out.toString();
+    }
+
+    private void addToWindow(long minute, Map<String, LongAdder> counts) {
+        Bucket w = new Bucket(minute);
+        counts.forEach((code, a) -> {
+            LongAdder copy = new LongAdder();
+            copy.add(a.sum());
+            w.counts.put(code, copy);
+            windowCounts.computeIfAbsent(code, k -> new long[1])[0] += copy.sum();
+        });
+        window.addLast(w);
+    }
+
+    private void expireWindow(long oldest) {
+        for (Bucket w = window.peekFirst(); w != null && w.minute < oldest; w = window.peekFirst()) {
+            window.pollFirst();
+            w.counts.forEach((code, a) -> {
+                long[] c = windowCounts.get(code);
+                if (c != null && (c[0] -= a.sum()) <= 0) windowCounts.remove(code);
+            });
+        }
+    }
+
+    // One write and one fsync per drain, on a channel kept open between drains (reopened after a failure).
+    private void append(StringBuilder out) {
+        if (out.length() == 0) return;
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(out.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) channel.write(bytes);
+            channel.force(false);
+        } catch (IOException e) {
+            System.out.println("Failed to write click counts: " + e.getMessage());
+            closeChannel();
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close click counts: " + e.getMessage());
+        }
+        channel = null;
+    }
+
+    // Restores the last hour's window, and the hour rollup still in progress, from the records on disk.
+    private void replay() {
+        if (!Files.exists(file)) return;
+        long oldest = System.currentTimeMillis() / 60_000 - 59;
+        Map<Long, Map<String, LongAdder>> minutes = new TreeMap<>();
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = URLShortener.splitCsvLine(line);
+                if (parts.length < 4) continue;
+                try {
+                    long t = Long.parseLong(parts[1]);
+                    long c = Long.parseLong(parts[3]);
+                    if (parts[0].equals("H") && t == hour) {
+                        hourCounts.clear();
+                        hour = -1;
+                    } else if (parts[0].equals("M")) {
+                        if (t / 60 > hour) {
+                            hourCounts.clear();
+                            hour = t / 60;
+                        }
+                        if (t / 60 == hour) hourCounts.computeIfAbsent(parts[2], k -> new long[1])[0] += c;
+                        if (t >= oldest) minutes.computeIfAbsent(t, k -> new HashMap<>()).computeIfAbsent(parts[2], k -> new LongAdder()).add(c);
+                    }
+                } catch (NumberFormatException e) {
+                    // a crash mid-append leaves a partial last line; skip it
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to read click counts: " + e.getMessage());
+        }
+        minutes.forEach(this::addToWindow);
+    }
+
+    // Drains everything, including the minute in progress, so no counted click is lost on shutdown.
+    @Override
+    public void close() {
+        closed = true;
+        ticker.interrupt();
+        try {
+            ticker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            current = null;
+            drain(Long.MAX_VALUE);
+            closeChannel();
+        }
+    }
+}
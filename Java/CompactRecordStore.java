@@ -0,0 +1,407 @@
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+/**
+ * Id-addressed storage: a code is decoded back to its id, which indexes dense segmented arrays of
+ * one long per id. The record itself (createdAt as epoch seconds, then the long URL as UTF-8) is
+ * packed into 1 MB arena pages, and the slot holds its page, offset and length, so a mapping costs
+ * ~16 bytes plus its URL instead of a String key, a UrlRecord, a LocalDateTime and a hash-table node.
+ *
+ * No store-wide lock. A writer copies the record into an arena page, then publishes it with one
+ * atomic write of the slot (0 = empty), so a reader sees the old record or the new one, never a mix;
+ * removes clear the slot with a CAS. Writers spread over ARENAS arenas by thread, each with its own
+ * lock, and a page's bytes never change once a slot points at them.
+ *
+ * Records left behind by removes and overwrites are dead bytes: page bytes that no slot points at.
+ * Once they outweigh the live ones (and pass urlshortener.reclaimAfterMb), a background thread seals
+ * the arenas, copies every live record out of the older pages, moves each slot over with a CAS and
+ * drops those pages. A reader that finds its page gone reads the slot again.
+ *
+ * Codes that aren't encodeBase62(id) of their own record (hand-edited CSV rows), and records
+ * longer than a page, go to a small overflow map.
+ */
+class CompactRecordStore implements RecordStore {
+    private static final int SEG_BITS = 16;
+    private static final int SEG_SIZE = 1 << SEG_BITS;
+    private static final int PAGE_BITS = 20;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final long MAX_DENSE_ID = Integer.MAX_VALUE;
+    private static final int ARENAS = 16;
+    private static final int CREATED = 8; // bytes of createdAt in front of each URL
+    // slot word: page (23 bits) << 40 | offset in page (20 bits) << 20 | record length (20 bits)
+    private static final long FIELD = (1L << PAGE_BITS) - 1;
+
+    private static final class Segment {
+        final AtomicLongArray slots = new AtomicLongArray(SEG_SIZE);
+    }
+
+    // The page records are appended to; guarded by the arena's monitor.
+    private static final class Arena {
+        byte[] page;
+        int pageIndex;
+        int pos = PAGE_SIZE; // starts "full"
+    }
+
+    private final ConcurrentHashMap<String, UrlRecord> overflow = new ConcurrentHashMap<>();
+    // ids of overflow mappings under their own code (URLs longer than a page, ids past MAX_DENSE_ID), for nextId
+    private final ConcurrentSkipListSet<Long> overflowIds = new ConcurrentSkipListSet<>();
+    private volatile Segment[] segments = new Segment[0];
+    private final Object segmentLock = new Object();
+    private volatile byte[][] pages = new byte[0][]; // dropped pages are null
+    private int[] pageUsed = new int[0]; // bytes written to each page once it is full or sealed; guarded by pageLock
+    private final Object pageLock = new Object();
+    private final Arena[] arenas = new Arena[ARENAS];
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong maxId = new AtomicLong();
+    private final AtomicLong appendedBytes = new AtomicLong(); // records in pages not yet dropped
+    private final AtomicLong liveBytes = new AtomicLong(); // records that slots point at
+    private final AtomicBoolean reclaiming = new AtomicBoolean();
+
+    CompactRecordStore() {
+        for (int a = 0; a < ARENAS; a++) arenas[a] = new Arena();
+    }
+
+    public UrlRecord get(String code) {
+        long id = URLShortener.decodeBase62(code);
+        Segment seg = segmentFor(id);
+        if (seg != null) {
+            int i = (int) (id & (SEG_SIZE - 1));
+            for (long w = seg.slots.get(i); w != 0; w = seg.slots.get(i)) {
+                byte[] page = pages[page(w)];
+                if (page == null) continue; // moved by a reclaim
+                int off = offset(w), len = length(w);
+                String longUrl = new String(page, off + CREATED, len - CREATED, StandardCharsets.UTF_8);
+                return new UrlRecord(longUrl, id, LocalDateTime.ofEpochSecond(readLong(page, off), 0, ZoneOffset.UTC));
+            }
+        }
+        return overflow.isEmpty() ? null : overflow.get(code);
+    }
+
+    public boolean urlEquals(String code, String longUrl) {
+        long id = URLShortener.decodeBase62(code);
+        Segment seg = segmentFor(id);
+        if (seg != null) {
+            int i = (int) (id & (SEG_SIZE - 1));
+            for (long w = seg.slots.get(i); w != 0; w = seg.slots.get(i)) {
+                byte[] page = pages[page(w)];
+                if (page == null) continue;
+                return asciiEquals(page, offset(w) + CREATED, length(w) - CREATED, longUrl);
+            }
+        }
+        UrlRecord r = overflow.isEmpty() ? null : overflow.get(code);
+        return r != null && r.longUrl.equals(longUrl);
+    }
+
+    // Compares stored UTF-8 bytes with a String without decoding; non-ASCII falls back to a decode.
+    private static boolean asciiEquals(byte[] page, int off, int len, String s) {
+        if (len < s.length()) return false;
+        for (int k = 0; k < len; k++) {
+            byte b = page[off + k];
+            if (b < 0) return new String(page, off, len, StandardCharsets.UTF_8).equals(s);
+            if (k >= s.length() || s.charAt(k) != b) return false;
+        }
+        return len == s.length();
+    }
+
+    public boolean putIfAbsent(String code, UrlRecord rec) {
+        if (get(code) != null) return false;
+        byte[] record = dense(code, rec) ? record(rec) : null;
+        if (record == null) {
+            if (overflow.putIfAbsent(code, rec) != null) return false;
+            overflowAdded(code, rec);
+            size.incrementAndGet();
+            maxId.accumulateAndGet(rec.id, Math::max);
+            return true;
+        }
+        maxId.accumulateAndGet(rec.id, Math::max);
+        Segment seg = ensureSegment(rec.id);
+        int i = (int) (rec.id & (SEG_SIZE - 1));
+        Arena a = arena();
+        synchronized (a) {
+            long w = append(a, record);
+            // a lost race leaves the appended record dead
+            if (!seg.slots.compareAndSet(i, 0, w)) return false;
+        }
+        liveBytes.addAndGet(record.length);
+        size.incrementAndGet();
+        return true;
+    }
+
+    public void put(String code, UrlRecord rec) {
+        maxId.accumulateAndGet(rec.id, Math::max);
+        byte[] record = dense(code, rec) ? record(rec) : null;
+        if (record == null) {
+            // a URL too long for a page replaces the code's slot, if it had one
+            if (URLShortener.decodeBase62(code) == rec.id && clear(rec.id)) size.decrementAndGet();
+            if (overflow.put(code, rec) == null) size.incrementAndGet();
+            overflowAdded(code, rec);
+            return;
+        }
+        if (!overflow.isEmpty() && overflow.remove(code) != null) {
+            overflowRemoved(code);
+            size.decrementAndGet();
+        }
+        Segment seg = ensureSegment(rec.id);
+        int i = (int) (rec.id & (SEG_SIZE - 1));
+        Arena a = arena();
+        long old;
+        // publishing under the arena lock lets a reclaim wait for every record in a page it seals
+        synchronized (a) {
+            old = seg.slots.getAndSet(i, append(a, record));
+        }
+        liveBytes.addAndGet(record.length - (old == 0 ? 0 : length(old)));
+        if (old == 0) size.incrementAndGet();
+        else maybeReclaim();
+    }
+
+    public boolean remove(String code, long id) {
+        if (URLShortener.decodeBase62(code) != id || !clear(id)) {
+            UrlRecord r = overflow.get(code);
+            if (r == null || r.id != id || !overflow.remove(code, r)) return false;
+            overflowRemoved(code);
+        }
+        size.decrementAndGet();
+        return true;
+    }
+
+    public void remove(String code) {
+        if (clear(URLShortener.decodeBase62(code))) {
+            size.decrementAndGet();
+        } else if (overflow.remove(code) != null) {
+            overflowRemoved(code);
+            size.decrementAndGet();
+        }
+    }
+
+    private void overflowAdded(String code, UrlRecord rec) {
+        if (URLShortener.decodeBase62(code) == rec.id) overflowIds.add(rec.id);
+    }
+
+    // Re-adds the id when a concurrent put brought the code back in between.
+    private void overflowRemoved(String code) {
+        long id = URLShortener.decodeBase62(code);
+        if (id > 0 && overflowIds.remove(id) && overflow.containsKey(code)) overflowIds.add(id);
+    }
+
+    private boolean clear(long id) {
+        Segment seg = segmentFor(id);
+        if (seg == null) return false;
+        int i = (int) (id & (SEG_SIZE - 1));
+        long w;
+        do {
+            w = seg.slots.get(i);
+            if (w == 0) return false;
+        } while (!seg.slots.compareAndSet(i, w, 0));
+        liveBytes.addAndGet(-length(w));
+        maybeReclaim();
+        return true;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public long maxId() {
+        return maxId.get();
+    }
+
+    public String kind() {
+        return "compact";
+    }
+
+    // Bytes of records that no slot points at any more (removed or overwritten).
+    long deadBytes() {
+        return appendedBytes.get() - liveBytes.get();
+    }
+
+    public void forEach(BiConsumer<String, UrlRecord> action) {
+        Segment[] segs = segments;
+        for (int s = 0; s < segs.length; s++) {
+            if (segs[s] == null) continue;
+            for (int i = 0; i < SEG_SIZE; i++) {
+                if (segs[s].slots.get(i) == 0) continue;
+                String code = URLShortener.encodeBase62(((long) s << SEG_BITS) | i);
+                UrlRecord r = get(code);
+                if (r != null) action.accept(code, r);
+            }
+        }
+        overflow.forEach(action);
+    }
+
+    public long nextId(long from, long to) {
+        long next = Long.MAX_VALUE;
+        Long o = overflowIds.isEmpty() ? null : overflowIds.ceiling(from);
+        if (o != null && o <= to) next = o;
+        Segment[] segs = segments;
+        long end = Math.min(Math.min(to, next - 1), ((long) segs.length << SEG_BITS) - 1);
+        for (long id = Math.max(from, 1); id <= end; ) {
+            Segment seg = segs[(int) (id >>> SEG_BITS)];
+            if (seg == null) {
+                id = (id | (SEG_SIZE - 1)) + 1;
+            } else if (seg.slots.get((int) (id & (SEG_SIZE - 1))) != 0) {
+                return id;
+            } else {
+                id++;
+            }
+        }
+        return next;
+    }
+
+    public void forEachIrregular(BiConsumer<String, UrlRecord> action) {
+        overflow.forEach((code, rec) -> {
+            if (!code.equals(URLShortener.encodeBase62(rec.id))) action.accept(code, rec);
+        });
+    }
+
+    private static boolean dense(String code, UrlRecord rec) {
+        return rec.id >= 1 && rec.id <= MAX_DENSE_ID && URLShortener.decodeBase62(code) == rec.id;
+    }
+
+    // createdAt then the URL bytes, or null when that won't fit in a page
+    private static byte[] record(UrlRecord rec) {
+        byte[] url = rec.longUrl.getBytes(StandardCharsets.UTF_8);
+        if (CREATED + url.length > FIELD) return null;
+        byte[] record = new byte[CREATED + url.length];
+        long created = rec.createdAt.toEpochSecond(ZoneOffset.UTC);
+        for (int k = 0; k < CREATED; k++) record[k] = (byte) (created >>> (56 - 8 * k));
+        System.arraycopy(url, 0, record, CREATED, url.length);
+        return record;
+    }
+
+    private static long readLong(byte[] page, int off) {
+        long v = 0;
+        for (int k = 0; k < CREATED; k++) v = v << 8 | (page[off + k] & 0xFF);
+        return v;
+    }
+
+    private static int page(long w) {
+        return (int) (w >>> 40);
+    }
+
+    private static int offset(long w) {
+        return (int) ((w >>> 20) & FIELD);
+    }
+
+    private static int length(long w) {
+        return (int) (w & FIELD);
+    }
+
+    private Segment segmentFor(long id) {
+        if (id < 1 || id > MAX_DENSE_ID) return null;
+        Segment[] segs = segments;
+        int s = (int) (id >>> SEG_BITS);
+        return s < segs.length ? segs[s] : null;
+    }
+
+    private Segment ensureSegment(long id) {
+        int s = (int) (id >>> SEG_BITS);
+        Segment[] segs = segments;
+        if (s < segs.length && segs[s] != null) return segs[s];
+        synchronized (segmentLock) {
+            segs = segments;
+            if (s >= segs.length) segs = Arrays.copyOf(segs, Math.max(s + 1, segs.length * 2));
+            if (segs[s] == null) segs[s] = new Segment();
+            segments = segs; // volatile write: publishes the new segment
+            return segs[s];
+        }
+    }
+
+    // Threads keep to one arena each (modulo collisions), so writers rarely wait on each other.
+    private Arena arena() {
+        long t = Thread.currentThread().getId();
+        return arenas[(int) ((t * 0x9E3779B97F4A7C15L) >>> 60) & (ARENAS - 1)];
+    }
+
+    // Copies the record into the arena's page (a new one when it doesn't fit) and returns its slot word.
+    // Caller holds the arena's monitor.
+    private long append(Arena a, byte[] record) {
+        if (a.pos + record.length > PAGE_SIZE) {
+            if (a.page != null) closePage(a.pageIndex, a.pos);
+            a.page = new byte[PAGE_SIZE];
+            a.pageIndex = addPage(a.page);
+            a.pos = 0;
+        }
+        System.arraycopy(record, 0, a.page, a.pos, record.length);
+        long w = (long) a.pageIndex << 40 | (long) a.pos << 20 | record.length;
+        a.pos += record.length;
+        appendedBytes.addAndGet(record.length);
+        return w;
+    }
+
+    private int addPage(byte[] page) {
+        synchronized (pageLock) {
+            byte[][] p = Arrays.copyOf(pages, pages.length + 1);
+            p[p.length - 1] = page;
+            pageUsed = Arrays.copyOf(pageUsed, p.length);
+            pages = p;
+            return p.length - 1;
+        }
+    }
+
+    private void closePage(int index, int used) {
+        synchronized (pageLock) {
+            pageUsed[index] = used;
+        }
+    }
+
+    private void maybeReclaim() {
+        long dead = deadBytes();
+        if (dead < URLShortener.RECLAIM_AFTER_BYTES || dead <= liveBytes.get() || !reclaiming.compareAndSet(false, true)) return;
+        Thread t = new Thread(() -> {
+            try {
+                reclaim();
+            } finally {
+                reclaiming.set(false);
+            }
+        }, "arena-reclaimer");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Moves every live record out of the pages that exist now, then drops those pages.
+    void reclaim() {
+        int sealed;
+        synchronized (pageLock) {
+            sealed = pages.length;
+        }
+        // After this no writer appends to, or publishes into, a page below `sealed`.
+        for (Arena a : arenas) {
+            synchronized (a) {
+                if (a.page == null) continue;
+                closePage(a.pageIndex, a.pos);
+                a.page = null;
+                a.pos = PAGE_SIZE;
+            }
+        }
+        Arena copy = new Arena();
+        Segment[] segs = segments;
+        for (Segment seg : segs) {
+            if (seg == null) continue;
+            for (int i = 0; i < SEG_SIZE; i++) {
+                long w = seg.slots.get(i);
+                if (w == 0 || page(w) >= sealed) continue;
+                byte[] record = Arrays.copyOfRange(pages[page(w)], offset(w), offset(w) + length(w));
+                // fails when a write or remove got there first; the copy is then dead
+                seg.slots.compareAndSet(i, w, append(copy, record));
+            }
+        }
+        if (copy.page != null) closePage(copy.pageIndex, copy.pos);
+        synchronized (pageLock) {
+            byte[][] p = pages.clone();
+            for (int k = 0; k < sealed; k++) {
+                if (p[k] == null) continue;
+                p[k] = null;
+                appendedBytes.addAndGet(-pageUsed[k]);
+            }
+            pages = p;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counting Bloom filter over 64-bit hashes: 4-bit counters, sixteen to a long, updated with CAS
+ * so adds and removes from different stripe locks don't lose updates, and read without locks.
+ * A counter that reaches 15 sticks there (never decremented) so an overflow can't cause a false
+ * negative. The k probe positions come from the two halves of the hash (double hashing).
+ */
+class CountingBloomFilter {
+    private final AtomicLongArray words;
+    private final long counters;
+    private final int k;
+    private final long capacity;
+    private final double fpp;
+    private final AtomicLong entries = new AtomicLong();
+    private final LongAdder negatives = new LongAdder();
+
+    CountingBloomFilter(long capacity, double fpp) {
+        this.capacity = capacity;
+        this.fpp = fpp;
+        long m = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.counters = Math.max(64, Math.min(m, (long) Integer.MAX_VALUE * 16));
+        this.k = Math.max(1, (int) Math.round((double) counters / capacity * Math.log(2)));
+        this.words = new AtomicLongArray((int) ((counters + 15) / 16));
+    }
+
+    boolean mightContain(long h) {
+        for (int i = 0; i < k; i++) {
+            long c = index(h, i);
+            if (((words.get((int) (c >>> 4)) >>> ((c & 15) << 2)) & 15) == 0) {
+                negatives.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void add(long h) {
+        for (int i = 0; i < k; i++) update(index(h, i), 1);
+        entries.incrementAndGet();
+    }
+
+    void remove(long h) {
+        for (int i = 0; i < k; i++) update(index(h, i), -1);
+        entries.decrementAndGet();
+    }
+
+    // Past its capacity the false-positive rate climbs above the configured one.
+    boolean full() {
+        return entries.get() > capacity;
+    }
+
+    private long index(long h, int i) {
+        long h1 = h & 0xFFFFFFFFL, h2 = h >>> 32;
+        return ((h1 + i * h2) & Long.MAX_VALUE) % counters;
+    }
+
+    private void update(long c, int delta) {
+        int word = (int) (c >>> 4);
+        int shift = (int) (c & 15) << 2;
+        while (true) {
+            long w = words.get(word);
+            long v = (w >>> shift) & 15;
+            if (v == 15 || (v == 0 && delta < 0)) return;
+            if (words.compareAndSet(word, w, w + ((long) delta << shift))) return;
+        }
+    }
+
+    String stats(String name) {
+        return String.format("%s filter: entries=%d capacity=%d fpp=%.4f k=%d memory=%.1f KB definite-misses=%d",
+                name, entries.get(), capacity, fpp, k, words.length() * 8 / 1024.0, negatives.sum());
+    }
+}
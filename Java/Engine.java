@@ -0,0 +1,307 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.IntStream;
+
+/**
+ * Thread-safe core of the shortener: routes shorten, resolve and delete to the store's partitions.
+ *
+ * - A URL belongs to the partition picked by its hash, so dedup and the reverse index never
+ *   cross partitions and shortens in different partitions share no lock, journal or file.
+ * - A code is looked up first in the partition its id points to (ids are allocated per
+ *   partition, congruent to its index), then in the others; their Bloom filters turn those
+ *   extra probes into a few memory reads.
+ * - With one partition (the default) the store lives directly in the data directory; with n,
+ *   in partitions-n/p0 .. p(n-1), and url_mappings.partitions records n.
+ */
+class Engine implements Closeable {
+    // latency histograms (see Metrics), also exposed as JMX beans cognizant.metrics:type=Timer,name=urlshortener.*
+    // (resolve and findCodeByLongUrl take well under a microsecond in memory, so they time 1 call in 64)
+    private static final Metrics.Timer SHORTEN_TIMER = Metrics.timer("urlshortener.shorten");
+    private static final Metrics.Timer SHORTEN_BATCH_TIMER = Metrics.timer("urlshortener.shortenBatch");
+    private static final Metrics.Timer RESOLVE_TIMER = Metrics.timer("urlshortener.resolve", 64);
+    private static final Metrics.Timer DELETE_TIMER = Metrics.timer("urlshortener.delete");
+    private static final Metrics.Timer FIND_BY_URL_TIMER = Metrics.timer("urlshortener.findCodeByLongUrl", 64);
+    private static final Metrics.Timer LOAD_TIMER = Metrics.timer("urlshortener.load");
+
+    private final Partition[] partitions;
+    private final ClickStats clicks; // null when disabled
+
+    Engine(Path dir, long groupCommitMs) throws IOException {
+        this(dir, groupCommitMs, URLShortener.PARTITIONS);
+    }
+
+    Engine(Path dir, long groupCommitMs, int count) throws IOException {
+        checkLayout(dir, count);
+        partitions = new Partition[count];
+        for (int i = 0; i < count; i++) partitions[i] = new Partition(partitionDir(dir, i, count), groupCommitMs, i, count);
+        clicks = URLShortener.CLICKS ? new ClickStats(dir.resolve(URLShortener.CLICKS_FILE)) : null;
+    }
+
+    ShortenResult shorten(String longUrl) throws IOException {
+        long t0 = SHORTEN_TIMER.start();
+        try {
+            long h = UrlIndex.hash(longUrl);
+            return partitions[partitionOf(h, partitions.length)].shorten(longUrl, h);
+        } finally {
+            SHORTEN_TIMER.stop(t0);
+        }
+    }
+
+    // See Partition.shortenBatch; each partition commits its share of the batch once, in parallel.
+    List<ShortenResult> shortenBatch(List<String> urls) throws IOException {
+        long t0 = SHORTEN_BATCH_TIMER.start();
+        try {
+            if (partitions.length == 1) return partitions[0].shortenBatch(urls);
+            List<List<Integer>> byPartition = new ArrayList<>();
+            for (int i = 0; i < partitions.length; i++) byPartition.add(new ArrayList<>());
+            for (int i = 0; i < urls.size(); i++) byPartition.get(partitionOf(UrlIndex.hash(urls.get(i)), partitions.length)).add(i);
+            ShortenResult[] results = new ShortenResult[urls.size()];
+            List<IOException> failures = Collections.synchronizedList(new ArrayList<>());
+            IntStream.range(0, partitions.length).parallel().forEach(p -> {
+                List<Integer> indexes = byPartition.get(p);
+                List<String> share = new ArrayList<>(indexes.size());
+                for (int i : indexes) share.add(urls.get(i));
+                try {
+                    List<ShortenResult> r = partitions[p].shortenBatch(share);
+                    for (int k = 0; k < indexes.size(); k++) results[indexes.get(k)] = r.get(k);
+                } catch (IOException e) {
+                    failures.add(e);
+                }
+            });
+            if (!failures.isEmpty()) throw failures.get(0);
+            return Arrays.asList(results);
+        } finally {
+            SHORTEN_BATCH_TIMER.stop(t0);
+        }
+    }
+
+    // Tries the partition the code's id was allocated in first; the others' Bloom filters turn
+    // their probes into a few memory reads, and the partition holding it is read only once.
+    UrlRecord resolve(String code) {
+        long t0 = RESOLVE_TIMER.start();
+        try {
+            if (partitions.length == 1) return partitions[0].resolve(code);
+            int home = home(code);
+            for (int i = 0; i < partitions.length; i++) {
+                UrlRecord rec = partitions[(home + i) % partitions.length].resolve(code);
+                if (rec != null) return rec;
+            }
+            return null;
+        } finally {
+            RESOLVE_TIMER.stop(t0);
+        }
+    }
+
+    boolean delete(String code) throws IOException {
+        long t0 = DELETE_TIMER.start();
+        try {
+            if (partitions.length == 1) return partitions[0].delete(code);
+            // peek, not resolve: finding the owner shouldn't count as a read in its cache
+            int home = home(code);
+            for (int i = 0; i < partitions.length; i++) {
+                Partition p = partitions[(home + i) % partitions.length];
+                UrlRecord rec = p.peek(code);
+                if (rec != null) return p.delete(code, rec);
+            }
+            return false;
+        } finally {
+            DELETE_TIMER.stop(t0);
+        }
+    }
+
+    String findCodeByLongUrl(String longUrl) {
+        long t0 = FIND_BY_URL_TIMER.start();
+        try {
+            long h = UrlIndex.hash(longUrl);
+            return partitions[partitionOf(h, partitions.length)].findCodeByLongUrl(longUrl, h);
+        } finally {
+            FIND_BY_URL_TIMER.stop(t0);
+        }
+    }
+
+    // The partition code's id was allocated in, where it usually still is.
+    private int home(String code) {
+        long id = URLShortener.decodeBase62(code);
+        return id > 0 ? (int) (id % partitions.length) : 0;
+    }
+
+    int size() {
+        int n = 0;
+        for (Partition p : partitions) n += p.size();
+        return n;
+    }
+
+    int partitionCount() {
+        return partitions.length;
+    }
+
+    long maxAllocatedId() {
+        long max = 0;
+        for (Partition p : partitions) max = Math.max(max, p.maxAllocatedId());
+        return max;
+    }
+
+    // Loads the partitions in parallel, then moves every partition's id allocation past the
+    // highest id in any of them (a rebalance can leave ids anywhere). A partition that fails to
+    // load fails the whole load, however many there are: serving without its mappings would hand
+    // out their ids again.
+    void load() throws IOException {
+        long timed = LOAD_TIMER.start();
+        try {
+            if (partitions.length == 1) {
+                if (!partitions[0].load()) throw new IOException("mappings did not load completely");
+                return;
+            }
+            long t0 = System.nanoTime();
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(partitions.length, Runtime.getRuntime().availableProcessors()));
+            try {
+                List<Future<Boolean>> loads = new ArrayList<>();
+                for (Partition p : partitions) loads.add(pool.submit(p::load));
+                for (int i = 0; i < partitions.length; i++) {
+                    if (!loads.get(i).get()) throw new IOException("partition " + i + " did not load completely");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted loading partitions");
+            } catch (ExecutionException e) {
+                throw new IOException("partition failed to load: " + e.getCause(), e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+            long maxId = maxAllocatedId();
+            for (Partition p : partitions) p.reserveAbove(maxId);
+            System.out.printf("Loaded %d mappings from %d partitions in %.0f ms.%n", size(), partitions.length, (System.nanoTime() - t0) / 1e6);
+        } finally {
+            LOAD_TIMER.stop(timed);
+        }
+    }
+
+    String filterStats() {
+        if (partitions.length == 1) return partitions[0].filterStats();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < partitions.length; i++) sb.append(i == 0 ? "" : "\n").append("p").append(i).append(' ').append(partitions[i].filterStats().replace("\n", "\np" + i + " "));
+        return sb.toString();
+    }
+
+    String cacheStats() {
+        if (partitions.length == 1) return partitions[0].cacheStats();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < partitions.length; i++) sb.append(i == 0 ? "" : "\n").append("p").append(i).append(' ').append(partitions[i].cacheStats());
+        return sb.toString();
+    }
+
+    // Counts one visit of code; lock-free, and the count reaches disk in the background.
+    void recordClick(String code) {
+        if (clicks != null) clicks.record(code);
+    }
+
+    List<Map.Entry<String, Long>> topCodes(int n) {
+        return clicks == null ? Collections.emptyList() : clicks.top(n);
+    }
+
+    // All mappings in id order, merged across partitions as they are consumed. Each partition
+    // contributes a point-in-time copy taken when the iterator is created.
+    Iterator<Map.Entry<String, UrlRecord>> recordsInIdOrder() {
+        if (partitions.length == 1) return partitions[0].records().iterator();
+        PriorityQueue<MergeHead> heads = new PriorityQueue<>(Comparator.comparingLong(h -> h.entry.getValue().id));
+        for (Partition p : partitions) {
+            Iterator<Map.Entry<String, UrlRecord>> source = p.records().iterator();
+            if (source.hasNext()) heads.add(new MergeHead(source.next(), source));
+        }
+        return new Iterator<Map.Entry<String, UrlRecord>>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<String, UrlRecord> next() {
+                MergeHead head = heads.poll();
+                if (head == null) throw new NoSuchElementException();
+                Map.Entry<String, UrlRecord> e = head.entry;
+                if (head.source.hasNext()) {
+                    head.entry = head.source.next();
+                    heads.add(head);
+                }
+                return e;
+            }
+        };
+    }
+
+    // Streaming point-in-time view of all mappings in id order; see ExportScan. Close it when done.
+    ExportScan scan() {
+        return new ExportScan(partitions);
+    }
+
+    private static final class MergeHead {
+        Map.Entry<String, UrlRecord> entry;
+        final Iterator<Map.Entry<String, UrlRecord>> source;
+
+        MergeHead(Map.Entry<String, UrlRecord> entry, Iterator<Map.Entry<String, UrlRecord>> source) {
+            this.entry = entry;
+            this.source = source;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (clicks != null) clicks.close();
+        IOException failure = null;
+        for (Partition p : partitions) {
+            try {
+                p.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    // Which of count partitions a URL hash belongs to. Uses the middle bits: the top bits pick the
+    // stripe inside a partition and the low ones drive the Bloom filter probes.
+    static int partitionOf(long urlHash, int count) {
+        return (int) ((((urlHash >>> 16) & 0xFFFFFFFFL) * count) >>> 32);
+    }
+
+    static Path partitionDir(Path dir, int index, int count) {
+        return count == 1 ? dir : dir.resolve("partitions-" + count).resolve("p" + index);
+    }
+
+    // Partition count the data in dir was written with; 1 when no layout file exists.
+    static int readLayout(Path dir) throws IOException {
+        Path layout = dir.resolve(URLShortener.LAYOUT_FILE);
+        if (!Files.exists(layout)) return 1;
+        try {
+            return Integer.parseInt(new String(Files.readAllBytes(layout), StandardCharsets.UTF_8).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Unreadable " + URLShortener.LAYOUT_FILE + ": " + e.getMessage());
+        }
+    }
+
+    static void writeLayout(Path dir, int count) throws IOException {
+        Path layout = dir.resolve(URLShortener.LAYOUT_FILE);
+        Path tmp = dir.resolve(URLShortener.LAYOUT_FILE + ".tmp");
+        Files.write(tmp, (count + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, layout, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // A store is only opened with the partition count it was written with; a new, empty data
+    // directory takes the configured count.
+    private static void checkLayout(Path dir, int count) throws IOException {
+        if (count < 1) throw new IOException("urlshortener.partitions must be at least 1");
+        int stored = readLayout(dir);
+        if (stored == count) return;
+        boolean hasData = false;
+        for (String f : new String[] {URLShortener.SNAPSHOT_FILE, URLShortener.JOURNAL_FILE, URLShortener.DATA_FILE, MappedRecordStore.IDX_FILE}) {
+            hasData |= Files.exists(partitionDir(dir, 0, stored).resolve(f));
+        }
+        if (hasData) {
+            throw new IOException("The store in " + dir.toAbsolutePath() + " has " + stored + " partition(s), not " + count
+                    + ". Run: java URLShortener rebalance " + count);
+        }
+        writeLayout(dir, count);
+    }
+}
@@ -0,0 +1,280 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Point-in-time walk over every mapping in id order, in bounded memory, while shortens and
+ * deletes keep running (used by streaming export).
+ *
+ * Nothing is copied up front. Each partition's store is walked in id order (RecordStore.nextId)
+ * and the partitions are merged by id, so the cost is one pass over each store rather than a probe
+ * of every id in every partition. Each partition registers the scan between two mutations, noting
+ * the highest id it had handed out, and from then on reports changes to it under the URL's stripe
+ * lock:
+ * - ids past that cutoff are new and never walked; the only new mappings at or below it come from
+ *   batches that allocated their ids before the scan opened, and those are remembered and skipped
+ * - a mapping deleted before the walk reaches its id is set aside and merged back in
+ * Both side sets forget ids once the walk passes them. Once more than SPILL_AT mappings are set
+ * aside, a background thread moves them to a sorted run file in the temp directory, which joins the
+ * merge, so a writer deleting far ahead of a slow walk costs disk rather than heap. The few codes that aren't encodeBase62 of their id
+ * (hand-edited CSV rows) are collected when the scan opens and merged in by id.
+ */
+final class ExportScan implements Iterator<Map.Entry<String, UrlRecord>>, Closeable {
+    private static final int SPILL_AT = 1 << 16; // set-aside mappings held in memory before a run file is written
+
+    // A run file of set-aside mappings in id order, read one ahead.
+    private static final class Run implements Closeable {
+        final Path file;
+        final DataInputStream in;
+        long id;
+        Map.Entry<String, UrlRecord> entry;
+
+        Run(Path file) throws IOException {
+            this.file = file;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+            advance();
+        }
+
+        void advance() throws IOException {
+            long next;
+            try {
+                next = in.readLong();
+            } catch (EOFException e) {
+                id = Long.MAX_VALUE;
+                entry = null;
+                return;
+            }
+            String code = in.readUTF();
+            LocalDateTime created = LocalDateTime.ofEpochSecond(in.readLong(), 0, ZoneOffset.UTC);
+            byte[] url = new byte[in.readInt()];
+            in.readFully(url);
+            id = next;
+            entry = new AbstractMap.SimpleImmutableEntry<>(code, new UrlRecord(new String(url, StandardCharsets.UTF_8), next, created));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private final Partition[] partitions;
+    private final long[] cutoffs;  // highest id each partition had handed out when it registered the scan
+    private final long[] cursors;  // next id each partition's store may hold at or past position
+    private final ConcurrentSkipListSet<Long> added = new ConcurrentSkipListSet<>();
+    private final ConcurrentSkipListMap<Long, Map.Entry<String, UrlRecord>> deleted = new ConcurrentSkipListMap<>();
+    private final AtomicInteger deletedCount = new AtomicInteger(); // size of deleted, which a skip list can't tell cheaply
+    private final ConcurrentHashMap<String, UrlRecord> deletedIrregular = new ConcurrentHashMap<>();
+    private final List<Run> runs = new CopyOnWriteArrayList<>(); // added by the spill thread, read by the walk
+    private final AtomicBoolean spilling = new AtomicBoolean();
+    private volatile IOException spillFailure;
+    private boolean closed; // guarded by this
+    private final List<Map.Entry<String, UrlRecord>> irregular = new ArrayList<>();
+    private volatile long position = 1;           // every id below this has been read
+    private volatile boolean collecting = true;   // irregular codes are still being gathered
+    private Map.Entry<String, UrlRecord> probed;  // next regular mapping, null when not fetched yet
+    private boolean probedAll;
+    private int irregularPos;
+
+    ExportScan(Partition[] partitions) {
+        this.partitions = partitions;
+        cutoffs = new long[partitions.length];
+        cursors = new long[partitions.length];
+        for (Partition p : partitions) p.openExport(this);
+        Set<String> seen = new HashSet<>();
+        for (Partition p : partitions) {
+            p.store.forEachIrregular((code, rec) -> {
+                if (seen.add(code)) irregular.add(new AbstractMap.SimpleImmutableEntry<>(code, rec));
+            });
+        }
+        collecting = false;
+        // irregular mappings deleted before the pass above reached them
+        deletedIrregular.forEach((code, rec) -> {
+            if (seen.add(code)) irregular.add(new AbstractMap.SimpleImmutableEntry<>(code, rec));
+        });
+        deletedIrregular.clear();
+        irregular.sort(Comparator.comparingLong(e -> e.getValue().id));
+    }
+
+    // Called by partition p under all its stripe locks, as it registers the scan.
+    void opened(int p, long maxAllocatedId) {
+        cutoffs[p] = maxAllocatedId;
+    }
+
+    // Called under the stripe lock right after partition p's store accepted the mapping.
+    void added(int p, long id) {
+        if (id <= cutoffs[p] && id >= position) added.add(id);
+    }
+
+    // Called under the stripe lock before partition p's store drops the mapping. A mapping whose id
+    // the walk has already passed was read while it was still there, so it needn't be kept.
+    void deleting(int p, String code, UrlRecord rec) {
+        if (!code.equals(URLShortener.encodeBase62(rec.id))) {
+            if (collecting) deletedIrregular.put(code, rec);
+        } else if (rec.id >= position && rec.id <= cutoffs[p] && !added.contains(rec.id)) {
+            if (deleted.put(rec.id, new AbstractMap.SimpleImmutableEntry<>(code, rec)) == null
+                    && deletedCount.incrementAndGet() > SPILL_AT && spilling.compareAndSet(false, true)) {
+                Thread t = new Thread(this::spill, "export-spill");
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return peekProbed() != null || irregularPos < irregular.size();
+    }
+
+    @Override
+    public Map.Entry<String, UrlRecord> next() {
+        Map.Entry<String, UrlRecord> p = peekProbed();
+        if (irregularPos < irregular.size()
+                && (p == null || irregular.get(irregularPos).getValue().id < p.getValue().id)) {
+            return irregular.get(irregularPos++);
+        }
+        if (p == null) throw new NoSuchElementException();
+        probed = null;
+        return p;
+    }
+
+    private Map.Entry<String, UrlRecord> peekProbed() {
+        if (probed != null || probedAll) return probed;
+        try {
+            for (;;) {
+                IOException failed = spillFailure;
+                if (failed != null) throw failed;
+                // the next id: the lowest of each store's next id and of the set-aside mappings
+                long id = Long.MAX_VALUE;
+                int from = -1;
+                for (int p = 0; p < partitions.length; p++) {
+                    if (cursors[p] < position) cursors[p] = partitions[p].store.nextId(position, cutoffs[p]);
+                    if (cursors[p] < id) {
+                        id = cursors[p];
+                        from = p;
+                    }
+                }
+                long gone = nextDeleted();
+                if (gone < id) {
+                    id = gone;
+                    from = -1;
+                }
+                if (id == Long.MAX_VALUE) break;
+                String code = URLShortener.encodeBase62(id);
+                UrlRecord rec = from < 0 ? null : partitions[from].store.get(code);
+                // published after the read, so a delete that sees position > id knows the read found the mapping
+                position = id + 1;
+                Map.Entry<String, UrlRecord> set = takeDeleted(id);
+                if (rec == null && set != null) rec = set.getValue();
+                if (rec != null && rec.id == id && !added.contains(id)) {
+                    probed = new AbstractMap.SimpleImmutableEntry<>(code, rec);
+                    break;
+                }
+            }
+            while (!added.isEmpty() && added.first() < position) added.pollFirst();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (probed == null) probedAll = true;
+        return probed;
+    }
+
+    // Lowest id set aside in memory or in a run, dropping any the walk has passed (a delete that
+    // raced the read of its id).
+    private long nextDeleted() throws IOException {
+        long min = Long.MAX_VALUE;
+        for (Long k; (k = firstKey()) != null && k < position; ) {
+            if (deleted.remove(k) != null) deletedCount.decrementAndGet();
+        }
+        Long k = firstKey();
+        if (k != null) min = k;
+        for (Run r : runs) {
+            while (r.id < position) r.advance();
+            min = Math.min(min, r.id);
+        }
+        return min;
+    }
+
+    private Long firstKey() {
+        Map.Entry<Long, Map.Entry<String, UrlRecord>> e = deleted.firstEntry();
+        return e == null ? null : e.getKey();
+    }
+
+    private Map.Entry<String, UrlRecord> takeDeleted(long id) throws IOException {
+        Map.Entry<String, UrlRecord> found = deleted.remove(id);
+        if (found != null) deletedCount.decrementAndGet();
+        for (Run r : runs) {
+            while (r.id == id) {
+                found = r.entry;
+                r.advance();
+            }
+        }
+        return found;
+    }
+
+    // Runs on the spill thread: writes the set-aside mappings to a new run file in id order, and
+    // drops them from memory only once the walk can read the run, so it never misses one.
+    private void spill() {
+        Path file = null;
+        try {
+            file = Files.createTempFile("urlshortener-export-", ".deleted");
+            List<Map.Entry<Long, Map.Entry<String, UrlRecord>>> written = new ArrayList<>();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+                for (Map.Entry<Long, Map.Entry<String, UrlRecord>> e : deleted.entrySet()) {
+                    UrlRecord rec = e.getValue().getValue();
+                    byte[] url = rec.longUrl.getBytes(StandardCharsets.UTF_8);
+                    out.writeLong(rec.id);
+                    out.writeUTF(e.getValue().getKey());
+                    out.writeLong(rec.createdAt.toEpochSecond(ZoneOffset.UTC));
+                    out.writeInt(url.length);
+                    out.write(url);
+                    written.add(e);
+                }
+            }
+            Run run = new Run(file);
+            synchronized (this) {
+                if (closed) {
+                    run.close();
+                    return;
+                }
+                runs.add(run);
+            }
+            for (Map.Entry<Long, Map.Entry<String, UrlRecord>> e : written) {
+                if (deleted.remove(e.getKey(), e.getValue())) deletedCount.decrementAndGet();
+            }
+        } catch (IOException e) {
+            spillFailure = e;
+            try {
+                if (file != null) Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // best effort; the export fails with the first error
+            }
+        } finally {
+            spilling.set(false);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Partition p : partitions) p.closeExport(this);
+        closed = true;
+        for (Run r : runs) {
+            try {
+                r.close();
+            } catch (IOException e) {
+                System.out.println("Failed to remove " + r.file + ": " + e.getMessage());
+            }
+        }
+        runs.clear();
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+class HashRecordStore implements RecordStore {
+    private static final int BLOCK_BITS = 16; // ids per bitmap block
+
+    private final ConcurrentHashMap<String, UrlRecord> map = new ConcurrentHashMap<>();
+    private final AtomicLong maxId = new AtomicLong();
+    // Ids whose own code (encodeBase62(id)) is mapped, one bit each in 8 KB blocks created on first
+    // use, so nextId can walk the map in id order. Set after the map changes and cleared only when
+    // the code is gone afterwards, so a set bit may be stale but a mapped id always has its bit.
+    private final ConcurrentSkipListMap<Long, AtomicLongArray> ids = new ConcurrentSkipListMap<>();
+
+    public UrlRecord get(String code) {
+        return map.get(code);
+    }
+
+    public boolean urlEquals(String code, String longUrl) {
+        UrlRecord r = map.get(code);
+        return r != null && r.longUrl.equals(longUrl);
+    }
+
+    public boolean putIfAbsent(String code, UrlRecord rec) {
+        if (map.putIfAbsent(code, rec) != null) return false;
+        maxId.accumulateAndGet(rec.id, Math::max);
+        added(code, rec);
+        return true;
+    }
+
+    public void put(String code, UrlRecord rec) {
+        map.put(code, rec);
+        maxId.accumulateAndGet(rec.id, Math::max);
+        added(code, rec);
+    }
+
+    public boolean remove(String code, long id) {
+        UrlRecord r = map.get(code);
+        if (r == null || r.id != id || !map.remove(code, r)) return false;
+        removed(code);
+        return true;
+    }
+
+    public void remove(String code) {
+        if (map.remove(code) != null) removed(code);
+    }
+
+    private void added(String code, UrlRecord rec) {
+        if (rec.id < 1 || URLShortener.decodeBase62(code) != rec.id) return;
+        AtomicLongArray block = ids.computeIfAbsent(rec.id >>> BLOCK_BITS, b -> new AtomicLongArray(1 << (BLOCK_BITS - 6)));
+        long bit = 1L << rec.id;
+        block.accumulateAndGet((int) (rec.id >>> 6) & ((1 << (BLOCK_BITS - 6)) - 1), bit, (w, b) -> w | b);
+    }
+
+    private void removed(String code) {
+        long id = URLShortener.decodeBase62(code);
+        AtomicLongArray block = id < 1 ? null : ids.get(id >>> BLOCK_BITS);
+        if (block == null) return;
+        int word = (int) (id >>> 6) & ((1 << (BLOCK_BITS - 6)) - 1);
+        block.accumulateAndGet(word, ~(1L << id), (w, m) -> w & m);
+        // a put of the same code may have set the bit just before it was cleared
+        UrlRecord r = map.get(code);
+        if (r != null && r.id == id) block.accumulateAndGet(word, 1L << id, (w, b) -> w | b);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public long maxId() {
+        return maxId.get();
+    }
+
+    public void forEach(BiConsumer<String, UrlRecord> action) {
+        map.forEach(action);
+    }
+
+    public long nextId(long from, long to) {
+        from = Math.max(from, 1);
+        for (Map.Entry<Long, AtomicLongArray> e : ids.tailMap(from >>> BLOCK_BITS).entrySet()) {
+            long base = e.getKey() << BLOCK_BITS;
+            if (base > to) break;
+            AtomicLongArray block = e.getValue();
+            for (int w = (int) (Math.max(from - base, 0) >>> 6); w < block.length(); w++) {
+                long bits = block.get(w);
+                long first = base + ((long) w << 6);
+                if (first < from) bits &= -1L << (from - first);
+                if (bits == 0) continue;
+                long id = first + Long.numberOfTrailingZeros(bits);
+                return id <= to ? id : Long.MAX_VALUE;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public String kind() {
+        return "hash";
+    }
+}
@@ -0,0 +1,195 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded read cache in front of the record store, using a simplified W-TinyLFU policy: new
+ * entries enter a small LRU window (1%); entries leaving it compete for the main segmented LRU
+ * (probation/protected) against its eviction victim, and only get in if a count-min sketch says
+ * they are requested more often. One-hit scans therefore can't flush the hot codes.
+ *
+ * Lookups are a ConcurrentHashMap read; recording the access is skipped if the policy lock is
+ * busy (the sketch is approximate anyway). Fills carry the invalidation stamp taken before the
+ * store read, so a fill racing a delete is dropped instead of caching a deleted mapping.
+ */
+class HotCache {
+    private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    private static final class Node {
+        final String code;
+        volatile UrlRecord value;
+        volatile long expiresAt;
+        int queue = -1; // -1 once removed
+        Node prev, next;
+
+        Node(String code) {
+            this.code = code;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Node> data = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Node[] queues = {new Node(null), new Node(null), new Node(null)}; // sentinels
+    private final int[] queueSizes = new int[3];
+    private final int maximum;
+    private final int maxWindow;
+    private final int maxProtected;
+    private final long ttlNanos;
+    private final byte[] sketch;
+    private final int sampleSize;
+    private int additions;
+    private final AtomicLong invalidations = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    HotCache(int maximum, long ttlSeconds) {
+        this.maximum = maximum;
+        this.maxWindow = Math.max(1, maximum / 100);
+        this.maxProtected = (int) ((maximum - maxWindow) * 0.8);
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        // ~16 one-byte counters per cached entry keeps collision noise well below real hit counts
+        int width = Integer.highestOneBit(Math.max(64, maximum * 16 - 1)) << 1;
+        this.sketch = new byte[width];
+        this.sampleSize = maximum * 10;
+        for (Node s : queues) s.prev = s.next = s;
+    }
+
+    // Invalidation stamp to pass to put() for a value read from the store after this call.
+    long stamp() {
+        return invalidations.get();
+    }
+
+    UrlRecord get(String code) {
+        Node n = data.get(code);
+        if (n == null || (ttlNanos > 0 && System.nanoTime() - n.expiresAt > 0)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (lock.tryLock()) {
+            try {
+                if (n.queue >= 0) onHit(n);
+                increment(code);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return n.value;
+    }
+
+    void put(String code, UrlRecord rec, long stamp) {
+        lock.lock();
+        try {
+            if (invalidations.get() != stamp) return;
+            increment(code);
+            Node n = data.get(code);
+            if (n == null) {
+                n = new Node(code);
+                data.put(code, n);
+                link(n, WINDOW);
+            } else {
+                onHit(n);
+            }
+            n.value = rec;
+            n.expiresAt = System.nanoTime() + ttlNanos;
+            while (queueSizes[WINDOW] > maxWindow) evictFromWindow();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void invalidate(String code) {
+        lock.lock();
+        try {
+            invalidations.incrementAndGet();
+            Node n = data.remove(code);
+            if (n != null) unlink(n);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String stats() {
+        long h = hits.sum(), m = misses.sum();
+        return String.format("cache size=%d/%d hits=%d misses=%d hitRate=%.1f%% evictions=%d",
+                data.size(), maximum, h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), evictions.sum());
+    }
+
+    private void onHit(Node n) {
+        if (n.queue == PROBATION) {
+            unlink(n);
+            link(n, PROTECTED);
+            if (queueSizes[PROTECTED] > maxProtected) {
+                Node demoted = queues[PROTECTED].prev;
+                unlink(demoted);
+                link(demoted, PROBATION);
+            }
+        } else {
+            int queue = n.queue;
+            unlink(n);
+            link(n, queue);
+        }
+    }
+
+    // The window's LRU entry moves to probation; if main is over capacity, the less frequent of it
+    // and main's LRU victim is evicted.
+    private void evictFromWindow() {
+        Node candidate = queues[WINDOW].prev;
+        unlink(candidate);
+        link(candidate, PROBATION);
+        if (queueSizes[PROBATION] + queueSizes[PROTECTED] <= maximum - maxWindow) return;
+        Node victim = queues[PROBATION].next != candidate ? queues[PROBATION].prev : queues[PROTECTED].prev;
+        Node evicted = victim.code != null && frequency(candidate.code) > frequency(victim.code) ? victim : candidate;
+        unlink(evicted);
+        data.remove(evicted.code, evicted);
+        evictions.increment();
+    }
+
+    private void link(Node n, int queue) {
+        Node head = queues[queue];
+        n.next = head.next;
+        n.prev = head;
+        head.next.prev = n;
+        head.next = n;
+        n.queue = queue;
+        queueSizes[queue]++;
+    }
+
+    private void unlink(Node n) {
+        if (n.queue < 0) return;
+        n.prev.next = n.next;
+        n.next.prev = n.prev;
+        queueSizes[n.queue]--;
+        n.queue = -1;
+    }
+
+    // Count-min sketch: 4 saturating counters per key, all halved every sampleSize additions
+    // so old popularity decays.
+    private void increment(String code) {
+        int h = spread(code.hashCode());
+        int mask = sketch.length - 1;
+        for (int i = 0; i < 4; i++) {
+            int idx = (h + i * (h >>> 16 | 1)) & mask;
+            if (sketch[idx] < 15) sketch[idx]++;
+        }
+        if (++additions >= sampleSize) {
+            additions = 0;
+            for (int i = 0; i < sketch.length; i++) sketch[i] >>= 1;
+        }
+    }
+
+    private int frequency(String code) {
+        int h = spread(code.hashCode());
+        int mask = sketch.length - 1;
+        int min = 15;
+        for (int i = 0; i < 4; i++) min = Math.min(min, sketch[(h + i * (h >>> 16 | 1)) & mask]);
+        return min;
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 15);
+    }
+}
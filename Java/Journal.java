@@ -0,0 +1,170 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Append-only change log. Callers append a record and then commit it; a flusher thread
+ * writes and fsyncs everything appended within one group-commit window together, so
+ * concurrent or rapid changes share a single fsync instead of rewriting the whole snapshot.
+ * A batch that fails to write stays pending and is retried with the next flush (any part of it
+ * that reached the file is cut off first); commits waiting on it get the error meanwhile.
+ */
+class Journal implements Closeable {
+    private final Path path;
+    private final long windowMs;
+    private final Object ioLock = new Object();
+    private final StringBuilder pending = new StringBuilder();
+    private final Thread flusher;
+    private FileChannel ch;
+    private long appendedSeq;
+    private long durableSeq;
+    private int records;
+    // the last failed flush and the highest sequence number it covered
+    private IOException failure;
+    private long failedSeq;
+    // file length to cut back to before the next write, after a failed one (-1 = none)
+    private long truncateTo = -1;
+    private volatile boolean closed;
+
+    Journal(Path path, long windowMs) throws IOException {
+        this.path = path;
+        this.windowMs = windowMs;
+        this.ch = open(path);
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        if (windowMs > 0) flusher.start();
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    synchronized long append(String record) {
+        pending.append(record).append('\n');
+        records++;
+        return ++appendedSeq;
+    }
+
+    synchronized int records() {
+        return records;
+    }
+
+    // Blocks until the record with this sequence number is on disk, or throws if a flush that
+    // included it failed (it stays pending and is retried).
+    void commit(long seq) throws IOException {
+        if (windowMs <= 0) {
+            flush();
+            return;
+        }
+        synchronized (this) {
+            while (durableSeq < seq) {
+                if (failedSeq >= seq) throw failure;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for journal commit");
+                }
+            }
+        }
+    }
+
+    void flush() throws IOException {
+        synchronized (ioLock) {
+            String batch;
+            long seq;
+            synchronized (this) {
+                if (pending.length() == 0) return;
+                batch = pending.toString();
+                pending.setLength(0);
+                seq = appendedSeq;
+            }
+            try {
+                if (!ch.isOpen()) ch = open(path);
+                if (truncateTo >= 0) {
+                    ch.truncate(truncateTo);
+                    truncateTo = -1;
+                }
+                long start = ch.size();
+                truncateTo = start; // until this batch is durable
+                ByteBuffer buf = StandardCharsets.UTF_8.encode(batch);
+                while (buf.hasRemaining()) ch.write(buf);
+                ch.force(false);
+                truncateTo = -1;
+            } catch (IOException e) {
+                synchronized (this) {
+                    pending.insert(0, batch);
+                    failure = e;
+                    failedSeq = seq;
+                    notifyAll();
+                }
+                throw e;
+            }
+            synchronized (this) {
+                durableSeq = seq;
+                notifyAll();
+            }
+        }
+    }
+
+    private void flushLoop() {
+        boolean failing = false;
+        while (!closed) {
+            try {
+                Thread.sleep(windowMs);
+                flush();
+                if (failing) System.out.println("Journal writes recovered.");
+                failing = false;
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                // the batch stays pending; report once per outage, then keep retrying
+                if (!failing) System.out.println("Failed to write journal (will retry): " + e.getMessage());
+                failing = true;
+            }
+        }
+    }
+
+    // Moves the current journal aside (for the compactor) and starts an empty one. If an earlier
+    // compaction left its file behind unfolded, the journal is added to the end of it instead of
+    // replacing it; records that end up in both files after a crash are harmless, replay is idempotent.
+    void rotate(Path to) throws IOException {
+        synchronized (ioLock) {
+            flush();
+            if (Files.exists(to)) {
+                try (FileChannel src = FileChannel.open(path, StandardOpenOption.READ);
+                     FileChannel dst = FileChannel.open(to, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    long size = src.size();
+                    for (long pos = 0; pos < size; ) pos += src.transferTo(pos, size - pos, dst);
+                    dst.force(false);
+                }
+                ch.truncate(0);
+                ch.force(true);
+            } else {
+                ch.close();
+                Files.move(path, to, StandardCopyOption.ATOMIC_MOVE);
+                ch = open(path);
+            }
+            synchronized (this) {
+                records = 0;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        // no interrupt: interrupting a thread inside FileChannel I/O closes the channel
+        try {
+            if (flusher.isAlive()) flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (ioLock) {
+            ch.close();
+        }
+    }
+}
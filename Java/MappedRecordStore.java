@@ -0,0 +1,528 @@
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Memory-mapped store: url_mappings.idx holds one fixed 32-byte slot per id (data offset,
+ * createdAt epoch seconds, URL length, write sequence) and url_mappings.dat holds the UTF-8 URL
+ * bytes. Both files are mapped in 64 MB regions, so opening is O(1) and the OS page cache decides
+ * what stays hot; the dataset is no longer capped by -Xmx.
+ *
+ * Slot 0 is the header: magic, clean flag, and the maxId / dataEnd / dead KB / count as of the last
+ * checkpoint. The journal stays the write-ahead log: a checkpoint forces both files, writes the
+ * header with clean=1 and forces it, after which the Engine drops the replayed journal. The first
+ * change after a checkpoint durably clears the flag, so an unclean open discards every slot whose id
+ * or URL bytes lie past the checkpoint (the journal puts the acknowledged ones back) and recounts.
+ *
+ * Writers lock one of STRIPES stripes, picked by id, and reserve URL bytes at dataEnd with a CAS, so
+ * writes to different ids run in parallel; a checkpoint takes every stripe. Reads take no lock: a
+ * writer makes the slot's sequence odd, fills the slot and makes it even again, and a reader retries
+ * until it read the slot with the same even sequence before and after.
+ *
+ * Removed and overwritten URLs stay in url_mappings.dat as dead bytes. A checkpoint that finds more
+ * dead than live bytes (and more than urlshortener.reclaimAfterMb) first rewrites both files with
+ * only the live URLs, into .compact files that it forces and then commits by renaming the index to
+ * url_mappings.idx.next; an interrupted switch-over is finished by the next open.
+ *
+ * Non-canonical codes live in a heap overflow map saved to url_mappings.overflow.csv at checkpoints.
+ */
+class MappedRecordStore implements RecordStore {
+    static final String IDX_FILE = "url_mappings.idx";
+    static final String DAT_FILE = "url_mappings.dat";
+    static final String OVERFLOW_FILE = "url_mappings.overflow.csv";
+    static final String COMPACT = ".compact";
+    static final String NEXT = ".next";
+    private static final int MAGIC = 0x55524C31; // "URL1"
+    private static final int SLOT = 32;
+    private static final int REGION_BITS = 26;
+    private static final long REGION = 1L << REGION_BITS;
+    private static final int STRIPES = 64;
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    // header fields (slot 0); files from before H_DEAD_KB had an 8-byte count at 24, which reads the same
+    private static final int H_MAGIC = 0, H_CLEAN = 4, H_MAX_ID = 8, H_DATA_END = 16, H_DEAD_KB = 24, H_COUNT = 28;
+    // slot fields
+    private static final int S_OFFSET = 0, S_CREATED = 8, S_LENGTH = 16, S_SEQ = 20;
+
+    // One pair of open files and their mappings; a reclaim switches to a new pair.
+    private static final class Generation {
+        final FileChannel idxCh;
+        final FileChannel datCh;
+        volatile MappedByteBuffer[] idxRegions = new MappedByteBuffer[0];
+        volatile MappedByteBuffer[] datRegions = new MappedByteBuffer[0];
+
+        Generation(Path idx, Path dat) throws IOException {
+            idxCh = FileChannel.open(idx, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                datCh = FileChannel.open(dat, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                idxCh.close();
+                throw e;
+            }
+        }
+
+        void close() throws IOException {
+            try {
+                idxCh.close();
+            } finally {
+                datCh.close();
+            }
+        }
+    }
+
+    private final Path dir;
+    private final Path overflowFile;
+    private final ConcurrentHashMap<String, UrlRecord> overflow = new ConcurrentHashMap<>();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private volatile Generation gen;
+    private final AtomicLong maxId = new AtomicLong();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong dataEnd = new AtomicLong();
+    private final AtomicLong liveBytes = new AtomicLong(); // URL bytes that slots point at
+    private volatile boolean clean;
+
+    MappedRecordStore(Path dir) throws IOException {
+        this.dir = dir;
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new ReentrantLock();
+        overflowFile = dir.resolve(OVERFLOW_FILE);
+        finishReclaim();
+        Generation g = gen = new Generation(dir.resolve(IDX_FILE), dir.resolve(DAT_FILE));
+        boolean fresh = g.idxCh.size() == 0;
+        MappedByteBuffer h = region(g, true, 0);
+        if (fresh) {
+            h.putInt(H_MAGIC, MAGIC);
+            h.putInt(H_CLEAN, 1);
+            clean = true;
+            return;
+        }
+        if (h.getInt(H_MAGIC) != MAGIC) throw new IOException(IDX_FILE + " is not a URLShortener index");
+        // mapping existing regions is cheap (no data is read), and readers expect them in place
+        for (long pos = REGION; pos < g.idxCh.size(); pos += REGION) region(g, true, pos);
+        for (long pos = 0; pos < g.datCh.size(); pos += REGION) region(g, false, pos);
+        maxId.set(h.getLong(H_MAX_ID));
+        dataEnd.set(h.getLong(H_DATA_END));
+        liveBytes.set(dataEnd.get() - ((long) h.getInt(H_DEAD_KB) << 10));
+        size.set(h.getInt(H_COUNT));
+        if (Files.exists(overflowFile)) URLShortener.readCsv(overflowFile, overflow::put);
+        clean = h.getInt(H_CLEAN) == 1;
+        if (!clean) recover();
+    }
+
+    // After a crash: drop slots written after the checkpoint (journal replay restores acknowledged
+    // ones) and recount, since deletes after the checkpoint may or may not have reached the disk.
+    // A slot is from after the checkpoint when its id is past maxId or its bytes are past dataEnd:
+    // ids are not handed out in order across threads, so a late small id can still be unsynced,
+    // but every put reserves its bytes at dataEnd, which the checkpoint recorded. A slot caught
+    // mid-write (odd sequence) was never acknowledged either.
+    private void recover() throws IOException {
+        Generation g = gen;
+        long lastSlot = (g.idxCh.size() / SLOT) - 1;
+        int count = overflow.size();
+        long live = 0;
+        for (long id = 1; id <= lastSlot; id++) {
+            MappedByteBuffer r = region(g, true, id * SLOT);
+            int off = slotOffset(id);
+            int seq = r.getInt(off + S_SEQ);
+            if ((seq & 1) != 0) r.putInt(off + S_SEQ, seq + 1);
+            int len = r.getInt(off + S_LENGTH);
+            if (len == 0) continue;
+            if ((seq & 1) != 0 || id > maxId.get() || r.getLong(off + S_OFFSET) + len > dataEnd.get()) {
+                r.putInt(off + S_LENGTH, 0);
+            } else {
+                count++;
+                live += len;
+            }
+        }
+        size.set(count);
+        liveBytes.set(live);
+    }
+
+    private static MappedByteBuffer region(Generation g, boolean idx, long pos) throws IOException {
+        int r = (int) (pos >>> REGION_BITS);
+        MappedByteBuffer[] regions = idx ? g.idxRegions : g.datRegions;
+        if (r < regions.length && regions[r] != null) return regions[r];
+        synchronized (g) {
+            regions = idx ? g.idxRegions : g.datRegions;
+            if (r >= regions.length) regions = Arrays.copyOf(regions, r + 1);
+            if (regions[r] == null) {
+                // mapping past the end grows the file (sparse until written)
+                regions[r] = (idx ? g.idxCh : g.datCh).map(FileChannel.MapMode.READ_WRITE, (long) r << REGION_BITS, REGION);
+            }
+            if (idx) g.idxRegions = regions;
+            else g.datRegions = regions;
+            return regions[r];
+        }
+    }
+
+    // Region holding the slot for id, or null when the id has never been written.
+    private MappedByteBuffer slotRegion(Generation g, long id) {
+        if (id < 1 || id > maxId.get()) return null;
+        MappedByteBuffer[] regions = g.idxRegions;
+        int r = (int) ((id * SLOT) >>> REGION_BITS);
+        return r < regions.length ? regions[r] : null;
+    }
+
+    private static int slotOffset(long id) {
+        return (int) ((id * SLOT) & (REGION - 1));
+    }
+
+    public UrlRecord get(String code) {
+        long id = URLShortener.decodeBase62(code);
+        Generation g = gen;
+        MappedByteBuffer r = slotRegion(g, id);
+        if (r != null) {
+            int off = slotOffset(id);
+            for (;;) {
+                int seq = (int) INT.getAcquire(r, off + S_SEQ);
+                if ((seq & 1) != 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                int len = r.getInt(off + S_LENGTH);
+                if (len == 0) break;
+                long dataPos = r.getLong(off + S_OFFSET);
+                long created = r.getLong(off + S_CREATED);
+                VarHandle.loadLoadFence();
+                if ((int) INT.get(r, off + S_SEQ) != seq) continue;
+                byte[] bytes = new byte[len];
+                g.datRegions[(int) (dataPos >>> REGION_BITS)].get((int) (dataPos & (REGION - 1)), bytes);
+                return new UrlRecord(new String(bytes, StandardCharsets.UTF_8), id,
+                        LocalDateTime.ofEpochSecond(created, 0, ZoneOffset.UTC));
+            }
+        }
+        return overflow.isEmpty() ? null : overflow.get(code);
+    }
+
+    public boolean urlEquals(String code, String longUrl) {
+        long id = URLShortener.decodeBase62(code);
+        Generation g = gen;
+        MappedByteBuffer r = slotRegion(g, id);
+        if (r != null) {
+            int off = slotOffset(id);
+            for (;;) {
+                int seq = (int) INT.getAcquire(r, off + S_SEQ);
+                if ((seq & 1) != 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                int len = r.getInt(off + S_LENGTH);
+                if (len == 0) break;
+                long dataPos = r.getLong(off + S_OFFSET);
+                VarHandle.loadLoadFence();
+                if ((int) INT.get(r, off + S_SEQ) != seq) continue;
+                // URL bytes are never rewritten in place, so they can be compared after the check
+                if (len < longUrl.length()) return false;
+                MappedByteBuffer d = g.datRegions[(int) (dataPos >>> REGION_BITS)];
+                int base = (int) (dataPos & (REGION - 1));
+                for (int k = 0; k < len; k++) {
+                    byte b = d.get(base + k);
+                    if (b < 0) {
+                        UrlRecord rec = get(code);
+                        return rec != null && rec.longUrl.equals(longUrl);
+                    }
+                    if (k >= longUrl.length() || longUrl.charAt(k) != b) return false;
+                }
+                return len == longUrl.length();
+            }
+        }
+        UrlRecord rec = overflow.isEmpty() ? null : overflow.get(code);
+        return rec != null && rec.longUrl.equals(longUrl);
+    }
+
+    // The stripe for a code; codes that don't decode all share one.
+    private ReentrantLock stripe(String code) {
+        long id = URLShortener.decodeBase62(code);
+        return stripes[(int) ((id * 0x9E3779B97F4A7C15L) >>> 58)];
+    }
+
+    public boolean putIfAbsent(String code, UrlRecord rec) {
+        ReentrantLock l = stripe(code);
+        l.lock();
+        try {
+            if (get(code) != null) return false;
+            putLocked(code, rec);
+            return true;
+        } finally {
+            l.unlock();
+        }
+    }
+
+    public void put(String code, UrlRecord rec) {
+        ReentrantLock l = stripe(code);
+        l.lock();
+        try {
+            putLocked(code, rec);
+        } finally {
+            l.unlock();
+        }
+    }
+
+    private void putLocked(String code, UrlRecord rec) {
+        try {
+            markDirty();
+            if (rec.id < 1 || URLShortener.decodeBase62(code) != rec.id) {
+                if (overflow.put(code, rec) == null) size.incrementAndGet();
+                maxId.accumulateAndGet(rec.id, Math::max);
+                return;
+            }
+            byte[] bytes = rec.longUrl.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > REGION) throw new IOException("URL longer than " + REGION + " bytes");
+            long dataPos = reserve(bytes.length);
+            Generation g = gen;
+            region(g, false, dataPos).put((int) (dataPos & (REGION - 1)), bytes);
+
+            MappedByteBuffer r = region(g, true, rec.id * SLOT);
+            int off = slotOffset(rec.id);
+            int old = rec.id <= maxId.get() ? r.getInt(off + S_LENGTH) : 0;
+            maxId.accumulateAndGet(rec.id, Math::max);
+            writeSlot(r, off, dataPos, rec.createdAt.toEpochSecond(ZoneOffset.UTC), bytes.length);
+            liveBytes.addAndGet(bytes.length - old);
+            if (old == 0) size.incrementAndGet();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Claims len bytes at dataEnd; a URL never straddles a region.
+    private long reserve(int len) {
+        for (;;) {
+            long end = dataEnd.get();
+            long pos = (end & (REGION - 1)) + len > REGION ? (end | (REGION - 1)) + 1 : end;
+            if (dataEnd.compareAndSet(end, pos + len)) return pos;
+        }
+    }
+
+    // Caller holds the id's stripe.
+    private static void writeSlot(MappedByteBuffer r, int off, long dataPos, long created, int len) {
+        int seq = r.getInt(off + S_SEQ);
+        INT.setOpaque(r, off + S_SEQ, seq + 1); // odd: readers wait
+        VarHandle.storeStoreFence();
+        r.putLong(off + S_OFFSET, dataPos);
+        r.putLong(off + S_CREATED, created);
+        r.putInt(off + S_LENGTH, len);
+        INT.setRelease(r, off + S_SEQ, seq + 2);
+    }
+
+    public boolean remove(String code, long id) {
+        ReentrantLock l = stripe(code);
+        l.lock();
+        try {
+            if (URLShortener.decodeBase62(code) != id || !clear(id)) {
+                UrlRecord r = overflow.get(code);
+                if (r == null || r.id != id || !overflow.remove(code, r)) return false;
+                markDirty();
+            }
+            size.decrementAndGet();
+            return true;
+        } finally {
+            l.unlock();
+        }
+    }
+
+    public void remove(String code) {
+        ReentrantLock l = stripe(code);
+        l.lock();
+        try {
+            if (clear(URLShortener.decodeBase62(code))) {
+                size.decrementAndGet();
+            } else if (overflow.remove(code) != null) {
+                markDirty();
+                size.decrementAndGet();
+            }
+        } finally {
+            l.unlock();
+        }
+    }
+
+    private boolean clear(long id) {
+        MappedByteBuffer r = slotRegion(gen, id);
+        if (r == null) return false;
+        int off = slotOffset(id);
+        int len = r.getInt(off + S_LENGTH);
+        if (len == 0) return false;
+        markDirty();
+        writeSlot(r, off, r.getLong(off + S_OFFSET), r.getLong(off + S_CREATED), 0);
+        liveBytes.addAndGet(-len);
+        return true;
+    }
+
+    // The first change after a checkpoint durably clears the clean flag before touching any slot.
+    private void markDirty() {
+        if (!clean) return;
+        synchronized (this) {
+            if (!clean) return;
+            MappedByteBuffer h = gen.idxRegions[0];
+            h.putInt(H_CLEAN, 0);
+            h.force(0, SLOT);
+            clean = false;
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public long maxId() {
+        return maxId.get();
+    }
+
+    public String kind() {
+        return "mapped";
+    }
+
+    // URL bytes in url_mappings.dat that no slot points at (removed or overwritten, and region padding).
+    long deadBytes() {
+        return dataEnd.get() - liveBytes.get();
+    }
+
+    public void forEach(BiConsumer<String, UrlRecord> action) {
+        long last = maxId.get();
+        for (long id = 1; id <= last; id++) {
+            MappedByteBuffer r = slotRegion(gen, id);
+            if (r == null || r.getInt(slotOffset(id) + S_LENGTH) == 0) continue;
+            String code = URLShortener.encodeBase62(id);
+            UrlRecord rec = get(code);
+            if (rec != null) action.accept(code, rec);
+        }
+        overflow.forEach(action);
+    }
+
+    public long nextId(long from, long to) {
+        Generation g = gen;
+        long end = Math.min(to, maxId.get());
+        for (long id = Math.max(from, 1); id <= end; ) {
+            MappedByteBuffer[] regions = g.idxRegions;
+            int r = (int) ((id * SLOT) >>> REGION_BITS);
+            if (r >= regions.length) break;
+            if (regions[r] == null) {
+                id = ((long) (r + 1) << REGION_BITS) / SLOT;
+            } else if (regions[r].getInt(slotOffset(id) + S_LENGTH) != 0) {
+                return id;
+            } else {
+                id++;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public void forEachIrregular(BiConsumer<String, UrlRecord> action) {
+        overflow.forEach((code, rec) -> {
+            if (!code.equals(URLShortener.encodeBase62(rec.id))) action.accept(code, rec);
+        });
+    }
+
+    public boolean persistent() {
+        return true;
+    }
+
+    public void checkpoint() throws IOException {
+        for (ReentrantLock l : stripes) l.lock();
+        try {
+            long dead = deadBytes();
+            if (dead >= URLShortener.RECLAIM_AFTER_BYTES && dead > liveBytes.get()) reclaim();
+            Generation g = gen;
+            for (MappedByteBuffer d : g.datRegions) if (d != null) d.force();
+            for (MappedByteBuffer r : g.idxRegions) if (r != null) r.force();
+            List<Map.Entry<String, UrlRecord>> extra = new ArrayList<>(overflow.entrySet());
+            if (!extra.isEmpty()) {
+                if (!URLShortener.saveToFile(overflowFile, extra)) throw new IOException("Failed to save " + OVERFLOW_FILE);
+            } else {
+                Files.deleteIfExists(overflowFile);
+            }
+            writeHeader(g.idxRegions[0], maxId.get(), dataEnd.get(), deadBytes(), size.get());
+            clean = true;
+        } finally {
+            for (ReentrantLock l : stripes) l.unlock();
+        }
+    }
+
+    private static void writeHeader(MappedByteBuffer h, long maxId, long dataEnd, long dead, int count) {
+        h.putLong(H_MAX_ID, maxId);
+        h.putLong(H_DATA_END, dataEnd);
+        h.putInt(H_DEAD_KB, (int) Math.min(Integer.MAX_VALUE, dead >> 10));
+        h.putInt(H_COUNT, count);
+        h.putInt(H_CLEAN, 1);
+        h.force(0, SLOT);
+    }
+
+    // Copies every live slot and its URL bytes into fresh files and switches to them. Caller holds
+    // every stripe; readers keep using the old mappings until they next read `gen`.
+    private void reclaim() throws IOException {
+        Generation old = gen;
+        Path idxTmp = dir.resolve(IDX_FILE + COMPACT);
+        Path datTmp = dir.resolve(DAT_FILE + COMPACT);
+        Files.deleteIfExists(idxTmp);
+        Files.deleteIfExists(datTmp);
+        Generation g = new Generation(idxTmp, datTmp);
+        long end = 0;
+        try {
+            MappedByteBuffer h = region(g, true, 0);
+            h.putInt(H_MAGIC, MAGIC);
+            long last = maxId.get();
+            for (long id = 1; id <= last; id++) {
+                MappedByteBuffer r = slotRegion(old, id);
+                if (r == null) continue;
+                int off = slotOffset(id);
+                int len = r.getInt(off + S_LENGTH);
+                if (len == 0) continue;
+                long dataPos = r.getLong(off + S_OFFSET);
+                byte[] bytes = new byte[len];
+                old.datRegions[(int) (dataPos >>> REGION_BITS)].get((int) (dataPos & (REGION - 1)), bytes);
+                if ((end & (REGION - 1)) + len > REGION) end = (end | (REGION - 1)) + 1;
+                region(g, false, end).put((int) (end & (REGION - 1)), bytes);
+                MappedByteBuffer nr = region(g, true, id * SLOT);
+                nr.putLong(off + S_OFFSET, end);
+                nr.putLong(off + S_CREATED, r.getLong(off + S_CREATED));
+                nr.putInt(off + S_LENGTH, len);
+                end += len;
+            }
+            for (MappedByteBuffer d : g.datRegions) if (d != null) d.force();
+            for (MappedByteBuffer r : g.idxRegions) if (r != null) r.force();
+            // the overflow file is unchanged, so the new pair is a complete checkpoint by itself
+            writeHeader(h, last, end, end - liveBytes.get(), size.get());
+            Files.move(idxTmp, dir.resolve(IDX_FILE + NEXT), StandardCopyOption.ATOMIC_MOVE); // commit point
+        } catch (IOException | RuntimeException e) {
+            g.close();
+            Files.deleteIfExists(idxTmp);
+            Files.deleteIfExists(datTmp);
+            throw e;
+        }
+        long reclaimed = deadBytes() - (end - liveBytes.get());
+        finishReclaim();
+        gen = g;
+        dataEnd.set(end);
+        old.close();
+        System.out.println("Reclaimed " + (reclaimed >> 20) + " MB of removed URLs from " + DAT_FILE + ".");
+    }
+
+    // Installs a committed reclaim (url_mappings.idx.next exists), or clears away an unfinished one.
+    private void finishReclaim() throws IOException {
+        Path next = dir.resolve(IDX_FILE + NEXT);
+        Path datTmp = dir.resolve(DAT_FILE + COMPACT);
+        if (Files.exists(next)) {
+            if (Files.exists(datTmp)) {
+                Files.move(datTmp, dir.resolve(DAT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.move(next, dir.resolve(IDX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            Files.deleteIfExists(dir.resolve(IDX_FILE + COMPACT));
+            Files.deleteIfExists(datTmp);
+        }
+    }
+
+    public void close() throws IOException {
+        gen.close();
+    }
+}
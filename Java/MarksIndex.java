@@ -0,0 +1,169 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Order-statistic index of students by marks: a treap (a binary search tree kept balanced by random
+ * priorities) in parallel arrays, where each node also counts its subtree. Nodes are ordered by
+ * marks, then by student ID. Insert and remove take O(log n); range, top-K and rank queries
+ * take O(log n + k), all expected. Removed nodes are reused.
+ * Not thread-safe; StudentDatabase guards it. countAbove and walk may run while a write is in
+ * progress, as long as the caller throws the result away afterwards: they then end (or throw)
+ * instead of looping.
+ */
+class MarksIndex {
+    // node 0 is the empty tree (size 0)
+    private double[] marks = new double[16];
+    private long[] ids = new long[16];
+    private Student[] students = new Student[16];
+    private int[] left = new int[16];
+    private int[] right = new int[16];
+    private int[] size = new int[16];
+    private int[] priority = new int[16];
+    private int root;
+    private int nodes = 1;
+    private int free; // removed nodes, linked through left[]
+    private final SplittableRandom random = new SplittableRandom(0x5EED);
+    // results of split()
+    private int splitLeft, splitRight;
+
+    int size() {
+        return size[root];
+    }
+
+    void add(Student s) {
+        int n = allocate();
+        marks[n] = s.getMarks();
+        ids[n] = s.getId();
+        students[n] = s;
+        left[n] = right[n] = 0;
+        size[n] = 1;
+        priority[n] = random.nextInt();
+        split(root, marks[n], ids[n]);
+        root = merge(merge(splitLeft, n), splitRight);
+    }
+
+    // The node is found by the student's marks and ID, so s must be the student that was added.
+    void remove(Student s) {
+        root = remove(root, s.getMarks(), s.getId());
+    }
+
+    // Students with marks strictly above m. A real path never visits more nodes than there are.
+    int countAbove(double m) {
+        int count = 0;
+        for (int t = root, steps = nodes; t != 0 && steps-- > 0; ) {
+            if (Double.compare(marks[t], m) > 0) {
+                count += size[right[t]] + 1;
+                t = left[t];
+            } else {
+                t = right[t];
+            }
+        }
+        return count;
+    }
+
+    // Up to limit students that sort after (m, id), in order, stopping at the first with marks above
+    // bound; when descending, those that sort before it, highest first, stopping below bound. Iterative
+    // and O(log n + limit); a real walk never descends into more nodes than there are.
+    void walk(double m, long id, boolean descending, double bound, int limit, List<Student> out) {
+        int[] stack = new int[64];
+        int depth = 0;
+        int steps = nodes;
+        int t = root;
+        for (;;) {
+            while (t != 0) {
+                if (steps-- <= 0) throw new IllegalStateException("marks index changed during the walk");
+                int c = compare(m, id, t);
+                if (descending ? c > 0 : c < 0) {
+                    if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+                    stack[depth++] = t;
+                    t = descending ? right[t] : left[t];
+                } else {
+                    t = descending ? left[t] : right[t];
+                }
+            }
+            if (depth == 0 || out.size() >= limit) return;
+            t = stack[--depth];
+            int past = Double.compare(marks[t], bound);
+            if (descending ? past < 0 : past > 0) return;
+            out.add(students[t]);
+            t = descending ? left[t] : right[t];
+        }
+    }
+
+    private int allocate() {
+        if (free != 0) {
+            int n = free;
+            free = left[n];
+            return n;
+        }
+        if (nodes == marks.length) {
+            int cap = nodes * 2;
+            marks = Arrays.copyOf(marks, cap);
+            ids = Arrays.copyOf(ids, cap);
+            students = Arrays.copyOf(students, cap);
+            left = Arrays.copyOf(left, cap);
+            right = Arrays.copyOf(right, cap);
+            size = Arrays.copyOf(size, cap);
+            priority = Arrays.copyOf(priority, cap);
+        }
+        return nodes++;
+    }
+
+    // < 0 when (m, id) sorts before node t
+    private int compare(double m, long id, int t) {
+        int c = Double.compare(m, marks[t]);
+        return c != 0 ? c : Long.compare(id, ids[t]);
+    }
+
+    private void update(int t) {
+        size[t] = size[left[t]] + size[right[t]] + 1;
+    }
+
+    // Splits t into the nodes before (m, id) (splitLeft) and the rest (splitRight).
+    private void split(int t, double m, long id) {
+        if (t == 0) {
+            splitLeft = splitRight = 0;
+        } else if (compare(m, id, t) > 0) {
+            split(right[t], m, id);
+            right[t] = splitLeft;
+            update(t);
+            splitLeft = t;
+        } else {
+            split(left[t], m, id);
+            left[t] = splitRight;
+            update(t);
+            splitRight = t;
+        }
+    }
+
+    // Joins two trees where every node of a sorts before every node of b.
+    private int merge(int a, int b) {
+        if (a == 0) return b;
+        if (b == 0) return a;
+        if (priority[a] > priority[b]) {
+            right[a] = merge(right[a], b);
+            update(a);
+            return a;
+        }
+        left[b] = merge(a, left[b]);
+        update(b);
+        return b;
+    }
+
+    private int remove(int t, double m, long id) {
+        if (t == 0) return 0;
+        int c = compare(m, id, t);
+        if (c == 0) {
+            int joined = merge(left[t], right[t]);
+            students[t] = null;
+            left[t] = free;
+            free = t;
+            return joined;
+        }
+        if (c < 0) left[t] = remove(left[t], m, id);
+        else right[t] = remove(right[t], m, id);
+        update(t);
+        return t;
+    }
+}
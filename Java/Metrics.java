@@ -0,0 +1,327 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics - latency histograms and counters shared by URLShortener, PasswordStrengthAnalyzer
+ * and StudentDatabase
+ *
+ * - Timer: a log-linear latency histogram (HdrHistogram-style: 64 sub-buckets per power of two,
+ *   so any recorded value is off by at most 1.6%) from 1ns to about a minute, plus count, total and
+ *   exact max. Recording is a few atomic adds on per-thread-striped arrays: no allocation and no lock.
+ *   Timers on paths of a microsecond or less can time a random 1 in N calls instead of all of them
+ *   (two clock reads per call would otherwise be a large share of the call); their count is scaled
+ *   back up and their percentiles and mean come from the sample.
+ * - Counter: a LongAdder.
+ * - Every timer and counter is registered as an MXBean under "cognizant.metrics:type=...,name=..."
+ *   (visible in jconsole / VisualVM) and can be written to a log file every few seconds.
+ *
+ * Usage:
+ *   private static final Metrics.Timer SAVE = Metrics.timer("app.save");
+ *   long t0 = SAVE.start();  ...  SAVE.stop(t0);
+ *   private static final Metrics.Timer RESOLVE = Metrics.timer("app.resolve", 64); // 1 call in 64
+ *
+ * Tuning (system properties):
+ * -Dmetrics.enabled=true           record (false makes start/stop no-ops; also settable at runtime)
+ * -Dmetrics.logSeconds=0           append a snapshot of every metric to the log this often (0 = off)
+ * -Dmetrics.log=metrics.log        snapshot log file
+ * -Dmetrics.print=false            print every metric to stderr when the JVM exits (for one-shot CLI runs)
+ */
+public final class Metrics {
+    private static final String DOMAIN = "cognizant.metrics";
+    private static final long LOG_SECONDS = Long.getLong("metrics.logSeconds", 0);
+    private static final String LOG_FILE = System.getProperty("metrics.log", "metrics.log");
+    private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static volatile boolean enabled = Boolean.parseBoolean(System.getProperty("metrics.enabled", "true"));
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static Thread logger;
+
+    static {
+        if (Boolean.getBoolean("metrics.print")) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.print(snapshot()), "metrics-print"));
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static Timer timer(String name) {
+        return timer(name, 1);
+    }
+
+    // Times one call in sampleEvery (rounded up to a power of two); the first registration of a name wins.
+    public static Timer timer(String name, int sampleEvery) {
+        return timers.computeIfAbsent(name, n -> register(new Timer(n, sampleEvery), "Timer", n));
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> register(new Counter(n), "Counter", n));
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    // One line per metric, sorted by name.
+    public static String snapshot() {
+        StringBuilder sb = new StringBuilder();
+        for (Timer t : new TreeMap<>(timers).values()) sb.append(t).append('\n');
+        for (Counter c : new TreeMap<>(counters).values()) sb.append(c).append('\n');
+        return sb.toString();
+    }
+
+    private static <T> T register(T bean, String type, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            if (!server.isRegistered(on)) server.registerMBean(bean, on);
+        } catch (JMException e) {
+            System.err.println("Failed to register metric " + name + ": " + e.getMessage());
+        }
+        startLogger();
+        return bean;
+    }
+
+    private static synchronized void startLogger() {
+        if (LOG_SECONDS <= 0 || logger != null) return;
+        logger = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(LOG_SECONDS * 1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                String ts = LocalDateTime.now().format(TS);
+                StringBuilder sb = new StringBuilder();
+                for (String line : snapshot().split("\n")) {
+                    if (!line.isEmpty()) sb.append(ts).append(' ').append(line).append('\n');
+                }
+                try {
+                    Files.write(Paths.get(LOG_FILE), sb.toString().getBytes(StandardCharsets.UTF_8),
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                } catch (IOException e) {
+                    System.err.println("Failed to write " + LOG_FILE + ": " + e.getMessage());
+                }
+            }
+        }, "metrics-logger");
+        logger.setDaemon(true);
+        logger.start();
+    }
+
+    public interface TimerMXBean {
+        long getCount();
+
+        double getMeanMicros();
+
+        double getP50Micros();
+
+        double getP90Micros();
+
+        double getP99Micros();
+
+        double getP999Micros();
+
+        double getMaxMicros();
+
+        void reset();
+    }
+
+    public interface CounterMXBean {
+        long getCount();
+
+        void reset();
+    }
+
+    public static final class Timer implements TimerMXBean {
+        private static final int SUB_BITS = 6;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int MAX_EXP = 36; // top bucket starts at 2^36ns (~69s); longer values land there
+        private static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB;
+        // Threads hash to one of several bucket arrays so concurrent recorders don't fight over one cache line.
+        private static final int STRIPES = Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+        private final String name;
+        private final int sampleMask; // 0 = time every call
+        private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        Timer(String name, int sampleEvery) {
+            this.name = name;
+            this.sampleMask = sampleEvery <= 1 ? 0 : Integer.highestOneBit(sampleEvery * 2 - 1) - 1;
+        }
+
+        // Start timestamp for stop(), or 0 when metrics are off or this call isn't sampled.
+        public long start() {
+            if (!enabled) return 0;
+            if (sampleMask != 0 && (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) return 0;
+            return System.nanoTime();
+        }
+
+        public void stop(long start) {
+            if (start != 0) record(System.nanoTime() - start);
+        }
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            stripe().getAndIncrement(index(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+            long m = max.get();
+            while (nanos > m && !max.compareAndSet(m, nanos)) m = max.get();
+        }
+
+        // Allocated on first use, so a timer only ever touched by one thread keeps one array.
+        private AtomicLongArray stripe() {
+            long id = Thread.currentThread().getId();
+            int i = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1);
+            AtomicLongArray a = stripes.get(i);
+            if (a == null) {
+                stripes.compareAndSet(i, null, new AtomicLongArray(BUCKETS));
+                a = stripes.get(i);
+            }
+            return a;
+        }
+
+        // Values below 64 get their own bucket; above that, the position of the leading one picks
+        // the power of two and the next six bits the sub-bucket.
+        private static int index(long v) {
+            if (v < SUB) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            if (exp > MAX_EXP) return BUCKETS - 1;
+            int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+            return (exp - SUB_BITS + 1) * SUB + sub;
+        }
+
+        // Highest value that falls into bucket i.
+        private static long upperBound(int i) {
+            if (i < SUB) return i;
+            int exp = i / SUB + SUB_BITS - 1;
+            long lower = (long) (SUB + i % SUB) << (exp - SUB_BITS);
+            return lower + (1L << (exp - SUB_BITS)) - 1;
+        }
+
+        public long percentileNanos(double p) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int s = 0; s < STRIPES; s++) {
+                AtomicLongArray a = stripes.get(s);
+                if (a == null) continue;
+                for (int i = 0; i < BUCKETS; i++) counts[i] += a.get(i);
+            }
+            for (long c : counts) total += c;
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(upperBound(i), max.get());
+            }
+            return max.get();
+        }
+
+        // Scaled up by the sampling rate for sampled timers.
+        @Override
+        public long getCount() {
+            return count.sum() * (sampleMask + 1);
+        }
+
+        @Override
+        public double getMeanMicros() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / 1e3 / n;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return percentileNanos(50) / 1e3;
+        }
+
+        @Override
+        public double getP90Micros() {
+            return percentileNanos(90) / 1e3;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return percentileNanos(99) / 1e3;
+        }
+
+        @Override
+        public double getP999Micros() {
+            return percentileNanos(99.9) / 1e3;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return max.get() / 1e3;
+        }
+
+        @Override
+        public void reset() {
+            for (int s = 0; s < STRIPES; s++) stripes.set(s, null);
+            count.reset();
+            totalNanos.reset();
+            max.set(0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s count=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%s",
+                    name, getCount(), getMeanMicros(), getP50Micros(), getP99Micros(), getP999Micros(), getMaxMicros(),
+                    sampleMask == 0 ? "" : " (1 in " + (sampleMask + 1) + " timed)");
+        }
+    }
+
+    public static final class Counter implements CounterMXBean {
+        private final String name;
+        private final LongAdder count = new LongAdder();
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        public void increment() {
+            if (enabled) count.increment();
+        }
+
+        public void add(long n) {
+            if (enabled) count.add(n);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public void reset() {
+            count.reset();
+        }
+
+        @Override
+        public String toString() {
+            return name + " count=" + getCount();
+        }
+    }
+}
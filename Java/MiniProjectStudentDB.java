@@ -1,5 +1,10 @@
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Mini Project: Student Database Management System
@@ -7,121 +12,32 @@ import java.util.Scanner;
  * Description:
  * A console-based Java application to store, update, search, and display student records.
  * Demonstrates use of ArrayList, OOP, and basic CRUD operations.
+ * Name searches go through a case-folded hash index, and marks/GPA ranges, top students and ranks
+ * through a sorted marks index, both kept up to date on add, update and remove.
+ * Students are addressed by a stable ID that is never reused. The database is safe for concurrent
+ * use: writers take a StampedLock exclusively and queries share its read lock; rank and count
+ * lookups read a few fields optimistically and only lock when a write got in their way.
+ * Cohort statistics (mean, median and percentile marks and GPA, grade bands, hobbies) run in
+ * parallel over columns of marks and hobbies that are kept up to date alongside the records.
+ *
+ * The database lives in StudentDatabase.java, with Student, MarksIndex and StudentColumns in files
+ * of their own; javac finds them (and Metrics.java) next to this file.
+ *
+ * Usage:
+ *   javac MiniProjectStudentDB.java
+ *   java MiniProjectStudentDB                           interactive menu
+ *   java MiniProjectStudentDB stress [threads] [seconds]  read scaling, concurrent searches and updates, then a consistency check
  */
-class Student {
-    private String name;
-    private String hobbies;
-    private double marks; // stored as percentage
-
-    // Constructor
-    public Student(String name, String hobbies, double marks) {
-        this.name = name;
-        this.hobbies = hobbies;
-        this.marks = marks;
-    }
-
-    // Getters
-    public String getName() {
-        return name;
-    }
-
-    public String getHobbies() {
-        return hobbies;
-    }
-
-    public double getMarks() {
-        return marks;
-    }
-
-    // Setters
-    public void setName(String name) {
-        this.name = name;
-    }
-
-    public void setHobbies(String hobbies) {
-        this.hobbies = hobbies;
-    }
-
-    public void setMarks(double marks) {
-        this.marks = marks;
-    }
-
-    // Method to calculate GPA (just a mock formula for demo)
-    public double calculateGPA() {
-        return (marks / 10);
-    }
-
-    // Display student details
-    public void displayDetails() {
-        System.out.println("Name : " + name);
-        System.out.println("Hobbies: " + hobbies);
-        System.out.println("Marks : " + marks + "%");
-        System.out.println("GPA  : " + String.format("%.2f", calculateGPA()));
-    }
-}
-
-class StudentDatabase {
-    private ArrayList<Student> students;
-
-    public StudentDatabase() {
-        students = new ArrayList<>();
-    }
-
-    public void addStudent(String name, String hobbies, double marks) {
-        students.add(new Student(name, hobbies, marks));
-        System.out.println("Student added successfully!");
-    }
-
-    public void updateStudent(int index, String name, String hobbies, double marks) {
-        if (index >= 0 && index < students.size()) {
-            Student s = students.get(index);
-            s.setName(name);
-            s.setHobbies(hobbies);
-            s.setMarks(marks);
-            System.out.println("Student updated successfully!");
-        } else {
-            System.out.println("Invalid student index!");
-        }
-    }
-
-    public void removeStudent(int index) {
-        if (index >= 0 && index < students.size()) {
-            students.remove(index);
-            System.out.println("Student removed successfully!");
-        } else {
-            System.out.println("Invalid student index!");
-        }
-    }
-
-    public void displayAllStudents() {
-        if (students.isEmpty()) {
-            System.out.println("⚠ No students in the database.");
-            return;
-        }
-        System.out.println("\n--- All Students ---");
-        for (int i = 0; i < students.size(); i++) {
-            System.out.println("Index: " + i);
-            students.get(i).displayDetails();
-            System.out.println("------------------------");
-        }
-    }
-
-    public void searchByName(String searchName) {
-        boolean found = false;
-        for (Student s : students) {
-            if (s.getName().equalsIgnoreCase(searchName)) {
-                s.displayDetails();
-                found = true;
-            }
-        }
-        if (!found) {
-            System.out.println("⚠ No student found with the name: " + searchName);
-        }
-    }
-}
-
 public class MiniProjectStudentDB {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("stress")) {
+            try {
+                runStressTest(args);
+            } catch (Exception e) {
+                System.out.println("Failed to run stress test: " + e.getMessage());
+            }
+            return;
+        }
         Scanner sc = new Scanner(System.in);
         StudentDatabase db = new StudentDatabase();
 
@@ -134,7 +50,11 @@ public class MiniProjectStudentDB {
             System.out.println("3. Remove Student");
             System.out.println("4. Display All Students");
             System.out.println("5. Search Student by Name");
-            System.out.println("6. Exit");
+            System.out.println("6. Search Students by Marks or GPA Range");
+            System.out.println("7. Display Top Students");
+            System.out.println("8. Show Rank of a Student");
+            System.out.println("9. Cohort Statistics");
+            System.out.println("10. Exit");
             System.out.print("Enter your choice: ");
 
             int choice;
@@ -157,21 +77,21 @@ public class MiniProjectStudentDB {
                     break;
 
                 case 2:
-                    System.out.print("Enter student index to update: ");
-                    int uIndex = Integer.parseInt(sc.nextLine());
+                    System.out.print("Enter student ID to update: ");
+                    long uId = Long.parseLong(sc.nextLine());
                     System.out.print("Enter new name: ");
                     String uName = sc.nextLine();
                     System.out.print("Enter new hobbies: ");
                     String uHobbies = sc.nextLine();
                     System.out.print("Enter new marks (%): ");
                     double uMarks = Double.parseDouble(sc.nextLine());
-                    db.updateStudent(uIndex, uName, uHobbies, uMarks);
+                    db.updateStudent(uId, uName, uHobbies, uMarks);
                     break;
 
                 case 3:
-                    System.out.print("Enter student index to remove: ");
-                    int rIndex = Integer.parseInt(sc.nextLine());
-                    db.removeStudent(rIndex);
+                    System.out.print("Enter student ID to remove: ");
+                    long rId = Long.parseLong(sc.nextLine());
+                    db.removeStudent(rId);
                     break;
 
                 case 4:
@@ -185,6 +105,34 @@ public class MiniProjectStudentDB {
                     break;
 
                 case 6:
+                    System.out.print("Search by (1) marks or (2) GPA: ");
+                    boolean byGpa = sc.nextLine().trim().equals("2");
+                    System.out.print("Enter minimum: ");
+                    double min = Double.parseDouble(sc.nextLine());
+                    System.out.print("Enter maximum: ");
+                    double max = Double.parseDouble(sc.nextLine());
+                    if (byGpa) {
+                        db.searchByGPA(min, max);
+                    } else {
+                        db.searchByMarks(min, max);
+                    }
+                    break;
+
+                case 7:
+                    System.out.print("How many students: ");
+                    db.displayTopStudents(Integer.parseInt(sc.nextLine()));
+                    break;
+
+                case 8:
+                    System.out.print("Enter name: ");
+                    db.displayRank(sc.nextLine());
+                    break;
+
+                case 9:
+                    db.displayStatistics();
+                    break;
+
+                case 10:
                     System.out.println("Exiting system... Goodbye!");
                     sc.close();
                     return;
@@ -194,4 +142,142 @@ public class MiniProjectStudentDB {
             }
         }
     }
+
+    // ====== Stress Test ======
+    // java MiniProjectStudentDB stress [threads] [seconds]
+    // Loads 100k students and measures read throughput with no writers, on 1 thread and on all of
+    // them, to show that reads scale. Then a quarter of the threads add, update and remove students
+    // while the rest search by ID, name, marks range, top and rank, and now and then group by hobby.
+    // Every record written is named after its marks ("s<marks>"), so a reader can tell when a result
+    // mixes two versions of the data. Reports reads and writes per second and how often an optimistic
+    // read had to retry under the lock, then checks the indexes and columns against the records.
+    private static void runStressTest(String[] args) throws Exception {
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int writers = Math.max(1, threads / 4);
+        StudentDatabase db = new StudentDatabase();
+        for (int n = 0; n < 100_000; n++) {
+            int marks = n % 101;
+            db.add("s" + marks, "h" + marks, marks);
+        }
+        int phase = Math.max(1, seconds / 4);
+        double alone = readThroughput(db, 1, phase);
+        double together = readThroughput(db, threads, phase);
+        System.out.printf("read-only: %.0f reads/sec on 1 thread, %.0f reads/sec on %d threads (x%.1f)%n",
+                alone, together, threads, together / alone);
+
+        long retries = Metrics.counter("studentdb.readRetries").getCount();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long reads = 0;
+        long writes = 0;
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                boolean writer = t < writers;
+                futures.add(pool.submit(() -> writer ? writeLoop(db, deadline) : readLoop(db, deadline)));
+            }
+            for (int t = 0; t < threads; t++) {
+                if (t < writers) writes += futures.get(t).get();
+                else reads += futures.get(t).get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        db.checkIndexes();
+        System.out.printf("threads=%d (%d writing) duration=%ds  %.0f reads/sec  %.0f writes/sec  %d optimistic reads retried%n",
+                threads, writers, seconds, reads / (double) seconds, writes / (double) seconds,
+                Metrics.counter("studentdb.readRetries").getCount() - retries);
+        System.out.println("OK: " + db.size() + " students, indexes consistent, highest ID " + db.lastId());
+    }
+
+    // Reads per second with this many threads running readLoop and nobody writing.
+    private static double readThroughput(StudentDatabase db, int threads, int seconds) throws Exception {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long reads = 0;
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) futures.add(pool.submit(() -> readLoop(db, deadline)));
+            for (Future<Long> f : futures) reads += f.get();
+        } finally {
+            pool.shutdownNow();
+        }
+        return reads / (double) seconds;
+    }
+
+    // Half updates, a quarter adds, a quarter removes, so the size stays about the same.
+    private static long writeLoop(StudentDatabase db, long deadline) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long ops = 0;
+        while (System.nanoTime() < deadline) {
+            int marks = rnd.nextInt(101);
+            int op = rnd.nextInt(4);
+            if (op == 0) {
+                db.add("s" + marks, "h" + marks, marks);
+            } else {
+                long id = 1 + rnd.nextLong(db.lastId());
+                if (op == 1) db.remove(id);
+                else db.update(id, "S" + marks, "h" + marks, marks);
+            }
+            ops++;
+        }
+        return ops;
+    }
+
+    private static long readLoop(StudentDatabase db, long deadline) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long ops = 0;
+        while (System.nanoTime() < deadline) {
+            int marks = rnd.nextInt(101);
+            switch (rnd.nextInt(5)) {
+                case 0:
+                    Student s = db.get(1 + rnd.nextLong(db.lastId()));
+                    if (s != null) checkRecord(s);
+                    break;
+                case 1:
+                    long lastId = 0;
+                    for (Student named : db.studentsNamed("S" + marks)) {
+                        checkRecord(named);
+                        if (named.getMarks() != marks || named.getId() <= lastId) throw new IllegalStateException("bad name search");
+                        lastId = named.getId();
+                    }
+                    break;
+                case 2:
+                    double prev = marks;
+                    for (Student ranged : db.studentsWithMarks(marks, marks + 2)) {
+                        checkRecord(ranged);
+                        if (ranged.getMarks() < prev || ranged.getMarks() > marks + 2) throw new IllegalStateException("bad marks range");
+                        prev = ranged.getMarks();
+                    }
+                    break;
+                case 3:
+                    double above = Double.POSITIVE_INFINITY;
+                    for (Student top : db.topStudents(10)) {
+                        checkRecord(top);
+                        if (top.getMarks() > above) throw new IllegalStateException("bad top students");
+                        above = top.getMarks();
+                    }
+                    break;
+                default:
+                    if (db.rankOfMarks(marks) < 1) throw new IllegalStateException("bad rank");
+                    // now and then the cohort statistics, which read the columns: hobby "h<m>" only goes with marks m
+                    if ((ops & 1023) == 0) {
+                        for (StudentColumns.HobbyGroup g : db.statistics(StudentColumns::groupByHobby)) {
+                            if (g.meanMarks != Integer.parseInt(g.hobby.substring(1))) throw new IllegalStateException("bad hobby statistics");
+                        }
+                    }
+            }
+            ops++;
+        }
+        return ops;
+    }
+
+    // Writers name every record after its marks and hobby; a torn read would break that.
+    private static void checkRecord(Student s) {
+        int marks = (int) s.getMarks();
+        if (!s.getName().substring(1).equals(Integer.toString(marks)) || !s.getHobbies().equals("h" + marks)) {
+            throw new IllegalStateException("torn record " + s.getId() + ": " + s.getName() + ", " + s.getHobbies() + ", " + marks);
+        }
+    }
 }
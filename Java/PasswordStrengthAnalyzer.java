@@ -1,59 +1,1384 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.util.*;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class PasswordStrengthAnalyzer {
 
     private static final String HISTORY_FILE = "password_history.txt";
-    private static final Set<String> DICTIONARY_WORDS = new HashSet<>(Arrays.asList(
+    private static final Metrics.Timer ANALYZE_TIMER = Metrics.timer("password.analyze");
+    private static final Metrics.Timer HASH_TIMER = Metrics.timer("password.hash");
+    private static final Metrics.Timer HISTORY_CHECK_TIMER = Metrics.timer("password.historyCheck");
+    private static final Metrics.Timer HISTORY_SAVE_TIMER = Metrics.timer("password.historySave");
+    private static final Metrics.Timer REQUEST_TIMER = Metrics.timer("password.request");
+    private static final Metrics.Counter HISTORY_FSYNCS = Metrics.counter("password.historyFsyncs");
+    private static final DigestPool SHA256 = new DigestPool("SHA-256");
+    private static final List<String> DEFAULT_WORDS = Arrays.asList(
             "password", "admin", "welcome", "login", "user", "qwerty", "abc123", "letmein"
-    ));
+    );
+    // -Dpassword.dictionary=words.txt replaces the built-in words with a word list (one per line)
+    static final DictionaryMatcher DICTIONARY = loadDictionary(System.getProperty("password.dictionary"));
+    // -Dpassword.breaches=breaches.bidx checks passwords against a breach index built by breachimport
+    static final BreachIndex BREACHES = openBreaches(System.getProperty("password.breaches"));
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("batch")) {
+            try {
+                runBatch(args);
+            } catch (IOException | InterruptedException | ExecutionException e) {
+                System.out.println("Failed to run batch: " + e.getMessage());
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("serve")) {
+            try {
+                runServer(args);
+            } catch (IOException e) {
+                System.out.println("Failed to start server: " + e.getMessage());
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("loadtest")) {
+            try {
+                runLoadTest(args);
+            } catch (Exception e) {
+                System.out.println("Failed to run load test: " + e.getMessage());
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("paritycheck")) {
+            if (!runParityCheck(args)) System.exit(1);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("breachimport")) {
+            try {
+                runBreachImport(args);
+            } catch (IOException e) {
+                System.out.println("Failed to import breaches: " + e.getMessage());
+            }
+            return;
+        }
         Scanner sc = new Scanner(System.in);
         System.out.println("===== Smart Password Strength Analyzer =====");
         System.out.print("Enter your password: ");
         String password = sc.nextLine();
         sc.close();
 
-        try {
-            if (isPasswordUsedBefore(password)) {
+        try (HistoryStore history = HistoryStore.open(Paths.get(HISTORY_FILE))) {
+            byte[] digest = digest(password); // the check and the save share one hash
+            if (isPasswordUsedBefore(digest, history)) {
                 System.out.println("  Warning: This password was used before. Choose a new one.");
             }
 
             int score = analyzePassword(password);
             System.out.println("\nFinal Strength Score: " + score + "/10");
 
-            if (score >= 8) {
-                System.out.println("Verdict:  Strong Password");
-            } else if (score >= 5) {
-                System.out.println("Verdict:  Medium Password");
-            } else {
-                System.out.println("Verdict:  Weak Password");
-            }
+            System.out.println("Verdict:  " + verdict(score) + " Password");
 
-            savePassword(password);
+            savePassword(digest, history);
 
         } catch (IOException e) {
             System.out.println("Error accessing password history file.");
         }
     }
 
+    static String verdict(int score) {
+        return score >= 8 ? "Strong" : score >= 5 ? "Medium" : "Weak";
+    }
+
+    // Prints the suggestions and warnings for the password and returns its score.
     public static int analyzePassword(String password) {
-        int score = 0;
+        Analysis a = analyze(password);
+        for (Check c : Check.values()) {
+            if (!a.failed(c)) continue;
+            if (c == Check.DICTIONARY) {
+                System.out.println("Warning: Avoid common word \"" + a.words.get(0) + "\" in your password.");
+            } else if (c == Check.BREACHED) {
+                System.out.println("Warning: This password appears " + (a.breaches >= BreachIndex.MAX_COUNT ? "over " : "")
+                        + a.breaches + " times in known data breaches.");
+            } else {
+                System.out.println(c.message);
+            }
+        }
+        if (a.keyboardWalk) System.out.println("Note: Keys next to each other on the keyboard (like \"qwe\") are easy to guess.");
+        return a.score;
+    }
+
+    // Scores the password without printing anything.
+    static Analysis analyze(String password) {
+        long t0 = ANALYZE_TIMER.start();
+        try {
+            int bits = scoreBits(password);
+            List<String> words = Collections.emptyList();
+            if ((bits >>> CHECK_SHIFT & Check.DICTIONARY.bit()) != 0) {
+                // the first word found comes first
+                int[] match = DICTIONARY.firstMatch(password);
+                Set<String> distinct = new LinkedHashSet<>();
+                distinct.add(password.substring(match[0], match[1]).toLowerCase());
+                distinct.addAll(DICTIONARY.matches(password));
+                words = new ArrayList<>(distinct);
+            }
+            int score = bits & SCORE_MASK, failed = bits >>> CHECK_SHIFT & CHECK_MASK;
+            int breaches = BREACHES == null ? 0 : BREACHES.occurrences(password);
+            if (breaches > 0) {
+                score = Math.max(0, score - breachPenalty(breaches));
+                failed |= Check.BREACHED.bit();
+            }
+            return new Analysis(score, failed, (bits & KEYBOARD_WALK) != 0, breaches, words);
+        } finally {
+            ANALYZE_TIMER.stop(t0);
+        }
+    }
+
+    // scoreBits() layout: score in the low 4 bits, then the failed Check bits, then KEYBOARD_WALK.
+    static final int SCORE_MASK = 0xF;
+    static final int CHECK_SHIFT = 4;
+    static final int CHECK_MASK = (1 << 8) - 1;
+    static final int KEYBOARD_WALK = 1 << (CHECK_SHIFT + 8);
+
+    // Per ASCII char: its character class, its position in "abcdefghijklmnopqrstuvwxyz0123456789"
+    // and its key on a QWERTY keyboard (row * 16 + column; digit row, then the three letter rows).
+    // Uppercase letters share their lowercase entries. NONE = not in the sequence / not a walk key.
+    private static final int UPPER = 1, LOWER = 2, DIGIT = 4, SPECIAL = 8;
+    private static final byte NONE = -100;
+    private static final byte[] CLASS = new byte[128];
+    private static final byte[] SEQUENCE = new byte[128];
+    private static final byte[] KEY = new byte[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            CLASS[c] = (byte) charClass(c);
+            SEQUENCE[c] = NONE;
+            KEY[c] = NONE;
+        }
+        String sequence = "abcdefghijklmnopqrstuvwxyz0123456789";
+        for (int i = 0; i < sequence.length(); i++) {
+            char c = sequence.charAt(i);
+            SEQUENCE[c] = SEQUENCE[Character.toUpperCase(c)] = (byte) i;
+        }
+        String[] rows = {"1234567890", "qwertyuiop", "asdfghjkl", "zxcvbnm"};
+        for (int r = 0; r < rows.length; r++) {
+            for (int i = 0; i < rows[r].length(); i++) {
+                char c = rows[r].charAt(i);
+                KEY[c] = KEY[Character.toUpperCase(c)] = (byte) (r * 16 + i);
+            }
+        }
+    }
+
+    private static int charClass(char c) {
+        if (Character.isUpperCase(c)) return UPPER;
+        if (Character.isLowerCase(c)) return LOWER;
+        if (Character.isDigit(c)) return DIGIT;
+        return SPECIAL;
+    }
+
+    // The whole score in one pass over the password, without allocating: character classes, runs of
+    // three equal chars, three ascending chars of a-z0-9 (compared after lowercasing, so "Xyz" and
+    // "yz0" count as before), keyboard walks of three adjacent keys along a row (reported, not
+    // scored) and the dictionary automaton. Gives the same score and failed checks as analyze() did
+    // with toLowerCase/contains; "paritycheck" checks that on a random corpus.
+    static int scoreBits(CharSequence password) {
+        int n = password.length();
+        DictionaryMatcher dictionary = DICTIONARY;
+        int classes = 0;
+        int state = 0;            // dictionary automaton; -1 once a word has been found
+        boolean repeating = false, walk = false;
+        int prev1 = -1, prev2 = -1; // last two chars as typed
+        // SEQUENCE and KEY entries of the last two lowercased chars; NONE is far from every entry,
+        // so the checks below need no separate "is it a sequence char" test
+        int seq1 = NONE, seq2 = NONE, key1 = NONE, key2 = NONE;
+        for (int i = 0; i < n; i++) {
+            char c = password.charAt(i);
+            repeating |= c == prev1 & c == prev2;
+            prev2 = prev1;
+            prev1 = c;
+            if (state >= 0) state = dictionary.next(state, c);
+
+            int seq, key;
+            if (c < 128) {
+                classes |= CLASS[c];
+                seq = SEQUENCE[c];
+                key = KEY[c];
+            } else {
+                classes |= charClass(c);
+                char lower = Character.toLowerCase(c);
+                if (c == '\u0130') {
+                    // String.toLowerCase turns this into "i" + U+0307, and that "i" can end a sequence
+                    seq = SEQUENCE['i'];
+                    key = KEY['i'];
+                    repeating |= seq - seq1 == 1 & seq1 - seq2 == 1;
+                    walk |= key - key1 == key1 - key2 & (key - key1 == 1 | key - key1 == -1);
+                    seq2 = seq1;
+                    seq1 = seq;
+                    key2 = key1;
+                    key1 = key;
+                    lower = '\u0307';
+                }
+                seq = lower < 128 ? SEQUENCE[lower] : NONE;
+                key = lower < 128 ? KEY[lower] : NONE;
+            }
+            repeating |= seq - seq1 == 1 & seq1 - seq2 == 1;
+            walk |= key - key1 == key1 - key2 & (key - key1 == 1 | key - key1 == -1);
+            seq2 = seq1;
+            seq1 = seq;
+            key2 = key1;
+            key1 = key;
+        }
+
+        int score = 0, failed = 0;
+        if (n >= 12) {
+            score += 3;
+        } else if (n >= 8) {
+            score += 2;
+        } else {
+            score += 1;
+            failed |= Check.LENGTH.bit();
+        }
+        if ((classes & UPPER) != 0) score++;
+        else failed |= Check.UPPERCASE.bit();
+        if ((classes & LOWER) != 0) score++;
+        else failed |= Check.LOWERCASE.bit();
+        if ((classes & DIGIT) != 0) score++;
+        else failed |= Check.DIGIT.bit();
+        if ((classes & SPECIAL) != 0) score++;
+        else failed |= Check.SPECIAL.bit();
+        if (state < 0) {
+            score -= 2;
+            failed |= Check.DICTIONARY.bit();
+        }
+        if (repeating) {
+            score -= 1;
+            failed |= Check.REPEATING.bit();
+        }
+        score = Math.max(0, Math.min(10, score));
+        return score | failed << CHECK_SHIFT | (walk ? KEYBOARD_WALK : 0);
+    }
+
+    // The checks a password can fail, in the order analyzePassword reports them.
+    enum Check {
+        LENGTH("Suggestion: Make the password at least 8 characters."),
+        UPPERCASE("Suggestion: Add uppercase letters."),
+        LOWERCASE("Suggestion: Add lowercase letters."),
+        DIGIT("Suggestion: Add numbers."),
+        SPECIAL("Suggestion: Add special characters (!,@,#,$, etc.)."),
+        DICTIONARY("Warning: Avoid common words in your password."),
+        REPEATING("Warning: Your password has repeating characters or patterns."),
+        BREACHED("Warning: This password appears in known data breaches.");
+
+        final String message;
+
+        Check(String message) {
+            this.message = message;
+        }
+
+        int bit() {
+            return 1 << ordinal();
+        }
+    }
+
+    // Result of analyze(): the score, the checks that failed, whether it contains a keyboard walk
+    // (informational, not scored), how often it appears in the breach index and the dictionary words
+    // found (first match first, no repeats).
+    static final class Analysis {
+        final int score;
+        final int failedChecks; // Check bits
+        final boolean keyboardWalk;
+        final int breaches;
+        final List<String> words;
+
+        Analysis(int score, int failedChecks, boolean keyboardWalk, int breaches, List<String> words) {
+            this.score = score;
+            this.failedChecks = failedChecks;
+            this.keyboardWalk = keyboardWalk;
+            this.breaches = breaches;
+            this.words = words;
+        }
+
+        boolean failed(Check c) {
+            return (failedChecks & c.bit()) != 0;
+        }
+    }
+
+    // ====== Batch Mode ======
+    // java PasswordStrengthAnalyzer batch <passwords.txt|-> [results.csv|results.jsonl|-]
+    // Reads one password per line and writes one result per line, in input order, identified by line
+    // number (passwords are not echoed). Lines are analyzed in chunks on all cores
+    // (-Dpassword.threads=N); at most two chunks per thread are in flight, so memory stays bounded
+    // whatever the input size. Per-score totals are printed at the end (to stderr when results go to stdout).
+    private static void runBatch(String[] args) throws IOException, InterruptedException, ExecutionException {
+        if (args.length < 2) {
+            System.out.println("Usage: java PasswordStrengthAnalyzer batch <passwords.txt|-> [results.csv|results.jsonl|-]");
+            return;
+        }
+        int threads = Integer.getInteger("password.threads", Runtime.getRuntime().availableProcessors());
+        boolean toStdout = args.length < 3 || args[2].equals("-");
+        boolean json = !toStdout && args[2].endsWith(".jsonl");
+        PrintStream report = toStdout ? System.err : System.out;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<BatchChunk>> pending = new ArrayDeque<>();
+        BatchChunk totals = new BatchChunk();
+        long t0 = System.nanoTime();
+        try (BufferedReader in = args[1].equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(args[1]), StandardCharsets.UTF_8);
+             Writer out = toStdout
+                     ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                     : Files.newBufferedWriter(Paths.get(args[2]), StandardCharsets.UTF_8)) {
+            if (!json) out.write("line,score,failedChecks,dictionaryWords\n");
+            long line = 1;
+            List<String> chunk = new ArrayList<>(BATCH_CHUNK);
+            String password;
+            while ((password = in.readLine()) != null) {
+                chunk.add(password);
+                if (chunk.size() < BATCH_CHUNK) continue;
+                List<String> lines = chunk;
+                long first = line;
+                pending.add(pool.submit(() -> analyzeChunk(lines, first, json)));
+                line += chunk.size();
+                chunk = new ArrayList<>(BATCH_CHUNK);
+                while (pending.size() >= 2 * threads) writeChunk(pending.poll().get(), out, totals);
+            }
+            if (!chunk.isEmpty()) {
+                List<String> lines = chunk;
+                long first = line;
+                pending.add(pool.submit(() -> analyzeChunk(lines, first, json)));
+            }
+            while (!pending.isEmpty()) writeChunk(pending.poll().get(), out, totals);
+        } finally {
+            pool.shutdownNow();
+        }
+        double secs = (System.nanoTime() - t0) / 1e9;
+        report.printf("Analyzed %d passwords in %.1f s (%.0f/sec, %d threads)%n", totals.count, secs, totals.count / secs, threads);
+        report.print(totals.summary());
+    }
+
+    private static final int BATCH_CHUNK = 4096;
+
+    private static BatchChunk analyzeChunk(List<String> passwords, long firstLine, boolean json) {
+        BatchChunk c = new BatchChunk();
+        StringBuilder sb = new StringBuilder(passwords.size() * 32);
+        for (int i = 0; i < passwords.size(); i++) {
+            String password = passwords.get(i);
+            Analysis a = analyze(password);
+            c.add(a, password.length());
+            long line = firstLine + i;
+            if (json) {
+                sb.append("{\"line\":").append(line).append(',');
+                jsonFields(sb, a);
+                sb.append("}\n");
+            } else {
+                sb.append(line).append(',').append(a.score).append(',');
+                boolean firstCheck = true;
+                for (Check check : Check.values()) {
+                    if (!a.failed(check)) continue;
+                    sb.append(firstCheck ? "" : ";").append(check);
+                    firstCheck = false;
+                }
+                sb.append(',').append(csvField(String.join(";", a.words))).append('\n');
+            }
+        }
+        c.text = sb.toString();
+        return c;
+    }
+
+    // "score", "failedChecks" and "dictionaryWords" of one result, shared by batch JSON lines and the service.
+    private static void jsonFields(StringBuilder sb, Analysis a) {
+        sb.append("\"score\":").append(a.score).append(",\"failedChecks\":[");
+        boolean firstCheck = true;
+        for (Check check : Check.values()) {
+            if (!a.failed(check)) continue;
+            sb.append(firstCheck ? "" : ",").append('"').append(check).append('"');
+            firstCheck = false;
+        }
+        sb.append("],\"dictionaryWords\":[");
+        for (int w = 0; w < a.words.size(); w++) {
+            if (w > 0) sb.append(',');
+            jsonString(sb, a.words.get(w));
+        }
+        sb.append(']');
+    }
+
+    private static void writeChunk(BatchChunk c, Writer out, BatchChunk totals) throws IOException {
+        out.write(c.text);
+        totals.merge(c);
+    }
+
+    private static String csvField(String s) {
+        if (s.contains(",") || s.contains("\"") || s.contains("\n") || s.contains("\r")) {
+            return "\"" + s.replace("\"", "\"\"") + "\"";
+        }
+        return s;
+    }
+
+    private static void jsonString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\') sb.append('\\').append(ch);
+            else if (ch < 0x20) sb.append(String.format("\\u%04x", (int) ch));
+            else sb.append(ch);
+        }
+        sb.append('"');
+    }
+
+    // Results of one chunk of a batch (its formatted rows plus counts), or the running totals.
+    private static final class BatchChunk {
+        String text;
+        long count;
+        final long[] perScore = new long[11];
+        final long[] lengthPerScore = new long[11];
+        final long[] dictionaryPerScore = new long[11];
+        final long[] failures = new long[Check.values().length];
+
+        void add(Analysis a, int length) {
+            count++;
+            perScore[a.score]++;
+            lengthPerScore[a.score] += length;
+            if (a.failed(Check.DICTIONARY)) dictionaryPerScore[a.score]++;
+            for (Check c : Check.values()) if (a.failed(c)) failures[c.ordinal()]++;
+        }
+
+        void merge(BatchChunk o) {
+            count += o.count;
+            for (int i = 0; i < perScore.length; i++) {
+                perScore[i] += o.perScore[i];
+                lengthPerScore[i] += o.lengthPerScore[i];
+                dictionaryPerScore[i] += o.dictionaryPerScore[i];
+            }
+            for (int i = 0; i < failures.length; i++) failures[i] += o.failures[i];
+        }
+
+        String summary() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%-6s %-7s %12s %8s %10s %10s%n", "score", "verdict", "passwords", "share", "avg len", "dictionary"));
+            for (int i = 0; i < perScore.length; i++) {
+                long n = perScore[i];
+                sb.append(String.format("%-6d %-7s %12d %7.2f%% %10.1f %9.2f%%%n", i, verdict(i),
+                        n, pct(n, count), n == 0 ? 0.0 : (double) lengthPerScore[i] / n, pct(dictionaryPerScore[i], n)));
+            }
+            sb.append("failed checks:");
+            for (Check c : Check.values()) sb.append(String.format(" %s=%d (%.2f%%)", c, failures[c.ordinal()], pct(failures[c.ordinal()], count)));
+            return sb.append(String.format("%n")).toString();
+        }
+
+        private static double pct(long part, long whole) {
+            return whole == 0 ? 0 : 100.0 * part / whole;
+        }
+    }
+
+    private static DictionaryMatcher loadDictionary(String file) {
+        if (file != null) {
+            try {
+                return DictionaryMatcher.load(Paths.get(file));
+            } catch (IOException e) {
+                System.out.println("Failed to load dictionary " + file + ": " + e.getMessage() + " (using built-in words)");
+            }
+        }
+        return DictionaryMatcher.of(DEFAULT_WORDS);
+    }
+
+    // ====== Password History Feature ======
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static String hashPassword(String password) {
+        byte[] d = digest(password);
+        char[] out = new char[2 * d.length];
+        hex(d, out, 0);
+        return new String(out);
+    }
+
+    // Lowercase hex of the bytes into out[off ..], without allocating.
+    static void hex(byte[] bytes, char[] out, int off) {
+        for (byte b : bytes) {
+            out[off++] = HEX[(b >> 4) & 0xF];
+            out[off++] = HEX[b & 0xF];
+        }
+    }
+
+    // Raw SHA-256 of the password; hashPassword is its hex form.
+    static byte[] digest(String password) {
+        long t0 = HASH_TIMER.start();
+        try {
+            return SHA256.digest(password.getBytes());
+        } finally {
+            HASH_TIMER.stop(t0);
+        }
+    }
+
+    static boolean isPasswordUsedBefore(String password, HistoryStore history) {
+        return isPasswordUsedBefore(digest(password), history);
+    }
+
+    static boolean isPasswordUsedBefore(byte[] digest, HistoryStore history) {
+        long t0 = HISTORY_CHECK_TIMER.start();
+        try {
+            return history.contains(digest);
+        } finally {
+            HISTORY_CHECK_TIMER.stop(t0);
+        }
+    }
+
+    // Adds the password's digest to the history; false when it was already there.
+    private static boolean savePassword(byte[] digest, HistoryStore history) throws IOException {
+        long t0 = HISTORY_SAVE_TIMER.start();
+        try {
+            return history.add(digest);
+        } finally {
+            HISTORY_SAVE_TIMER.stop(t0);
+        }
+    }
+
+    /**
+     * Reusable MessageDigest instances for one algorithm. getInstance looks the provider up and builds
+     * fresh state on every call. A ThreadLocal would not help the service either: a virtual thread
+     * lives for one request, so it would still build one per request. The pool keeps one digest per
+     * thread hashing at the same time; in steady state, taking and returning one is a pair of CAS.
+     */
+    static final class DigestPool {
+        private static final int SLOTS = Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) * 2);
+
+        private final String algorithm;
+        private final AtomicReferenceArray<MessageDigest> slots = new AtomicReferenceArray<>(SLOTS);
 
-        // Length check
+        DigestPool(String algorithm) {
+            this.algorithm = algorithm;
+            newDigest(); // fail now rather than on the first password
+        }
+
+        byte[] digest(byte[] input) {
+            int home = (int) Thread.currentThread().getId() & (SLOTS - 1);
+            MessageDigest md = null;
+            for (int i = 0; i < SLOTS && md == null; i++) {
+                int slot = (home + i) & (SLOTS - 1);
+                if (slots.get(slot) != null) md = slots.getAndSet(slot, null);
+            }
+            if (md == null) md = newDigest();
+            byte[] out = md.digest(input); // also resets it
+            for (int i = 0; i < SLOTS; i++) {
+                if (slots.compareAndSet((home + i) & (SLOTS - 1), null, md)) break;
+            }
+            return out;
+        }
+
+        private MessageDigest newDigest() {
+            try {
+                return MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("Error: " + algorithm + " algorithm not found.");
+            }
+        }
+    }
+
+    // ====== Service Mode ======
+    // java PasswordStrengthAnalyzer serve [port]
+    // Scores passwords over HTTP on 127.0.0.1 (default port 8081), one virtual thread per request on
+    // JDK 21+ and a cached thread pool before that:
+    //   POST /analyze   the body is the password (UTF-8, taken as is). Returns JSON with the score,
+    //                   failed checks, dictionary words, verdict, breach count, keyboard walk and
+    //                   whether it was used before. Like the interactive mode, the password then goes
+    //                   into the history; appends from concurrent requests share group commits.
+    //   GET /_metrics   latency histograms
+    private static void runServer(String[] args) throws IOException {
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8081;
+        HistoryStore history = HistoryStore.open(Paths.get(HISTORY_FILE));
+        HttpServer server = startServer(history, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(0);
+            try {
+                history.close();
+            } catch (IOException e) {
+                System.out.println("Failed to close password history: " + e.getMessage());
+            }
+        }));
+        System.out.println("Scoring passwords on http://127.0.0.1:" + server.getAddress().getPort() + "/analyze (Ctrl+C to stop)");
+    }
+
+    private static HttpServer startServer(HistoryStore history, int port) throws IOException {
+        // without TCP_NODELAY the JDK server's separate header/body writes wait on delayed ACKs
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+        server.createContext("/", exchange -> handleHttp(history, exchange));
+        server.setExecutor(newRequestExecutor());
+        server.start();
+        return server;
+    }
+
+    // One virtual thread per request on JDK 21+, a cached pool of platform threads on older runtimes.
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static void handleHttp(HistoryStore history, HttpExchange ex) throws IOException {
+        try {
+            String path = ex.getRequestURI().getPath();
+            if (path.equals("/_metrics")) {
+                send(ex, 200, "text/plain; charset=utf-8", Metrics.snapshot());
+            } else if (path.equals("/analyze")) {
+                if (!ex.getRequestMethod().equals("POST")) {
+                    send(ex, 405, "text/plain; charset=utf-8", "Use POST /analyze with the password as the body.\n");
+                    return;
+                }
+                long t0 = REQUEST_TIMER.start();
+                try {
+                    String password = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                    Analysis a = analyze(password);
+                    boolean usedBefore = !savePassword(digest(password), history);
+                    StringBuilder sb = new StringBuilder(192).append('{');
+                    jsonFields(sb, a);
+                    sb.append(",\"verdict\":\"").append(verdict(a.score)).append("\",\"breaches\":").append(a.breaches)
+                            .append(",\"keyboardWalk\":").append(a.keyboardWalk).append(",\"usedBefore\":").append(usedBefore).append("}\n");
+                    send(ex, 200, "application/json", sb.toString());
+                } finally {
+                    REQUEST_TIMER.stop(t0);
+                }
+            } else {
+                send(ex, 404, "text/plain; charset=utf-8", "Not found\n");
+            }
+        } catch (IOException e) {
+            send(ex, 500, "text/plain; charset=utf-8", "Failed to save password history: " + e.getMessage() + "\n");
+        } finally {
+            ex.close();
+        }
+    }
+
+    private static void send(HttpExchange ex, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", contentType);
+        ex.sendResponseHeaders(status, bytes.length);
+        ex.getResponseBody().write(bytes);
+    }
+
+    // ====== Load Test ======
+    // java PasswordStrengthAnalyzer loadtest [connections] [seconds]
+    // Starts the service on an ephemeral port over a temp history, then POSTs passwords from many
+    // keep-alive connections (half new, half repeats, so both history paths run) and reports requests
+    // per second, latency percentiles and how many fsyncs the history appends shared.
+    private static void runLoadTest(String[] args) throws Exception {
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        Path dir = Files.createTempDirectory("password-load");
+        try (HistoryStore history = HistoryStore.open(dir.resolve(HISTORY_FILE))) {
+            HttpServer server = startServer(history, 0);
+            int port = server.getAddress().getPort();
+            long fsyncs = HISTORY_FSYNCS.getCount();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            ExecutorService pool = Executors.newFixedThreadPool(connections);
+            long[][] perConnection = new long[connections][];
+            int total = 0;
+            try {
+                List<Future<long[]>> futures = new ArrayList<>();
+                for (int c = 0; c < connections; c++) {
+                    final int seed = c;
+                    futures.add(pool.submit(() -> analyzeLoop(port, seed, deadline)));
+                }
+                for (int c = 0; c < connections; c++) {
+                    perConnection[c] = futures.get(c).get();
+                    total += perConnection[c].length;
+                }
+            } finally {
+                pool.shutdownNow();
+                server.stop(0);
+                ((ExecutorService) server.getExecutor()).shutdown();
+            }
+
+            if (total == 0) {
+                System.out.println("No requests completed.");
+                return;
+            }
+            long[] all = new long[total];
+            int pos = 0;
+            for (long[] l : perConnection) {
+                System.arraycopy(l, 0, all, pos, l.length);
+                pos += l.length;
+            }
+            Arrays.sort(all);
+            System.out.printf("connections=%d duration=%ds requests=%d  %.0f req/sec  p50=%.3fms  p99=%.3fms  max=%.3fms%n",
+                    connections, seconds, total, total / (double) seconds,
+                    all[total / 2] / 1e6, all[(int) (total * 0.99)] / 1e6, all[total - 1] / 1e6);
+            System.out.printf("history: %d passwords, %d fsyncs%n", history.size(), HISTORY_FSYNCS.getCount() - fsyncs);
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path f : files) Files.delete(f);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    // POSTs passwords over one keep-alive socket until the deadline; returns each request's latency in ns.
+    private static long[] analyzeLoop(int port, int seed, long deadline) throws IOException {
+        Random rnd = new Random(seed);
+        String[] common = {"password123", "Tr0ub4dor&3", "correct horse battery staple", "aaaBBB111!!!", "Xk9#mQ2$vL7!pR4@"};
+        long[] latencies = new long[1024];
+        int n = 0;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            while (System.nanoTime() < deadline) {
+                String password = rnd.nextBoolean() ? common[rnd.nextInt(common.length)]
+                        : "Load-" + seed + "-" + n + "-" + Long.toString(rnd.nextLong() & Long.MAX_VALUE, 36);
+                byte[] body = password.getBytes(StandardCharsets.UTF_8);
+                long t0 = System.nanoTime();
+                out.write(("POST /analyze HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.write(body);
+                out.flush();
+                int status = readResponse(in);
+                long t = System.nanoTime() - t0;
+                if (status != 200) throw new IOException("Unexpected status " + status);
+                if (n == latencies.length) latencies = Arrays.copyOf(latencies, n * 2);
+                latencies[n++] = t;
+            }
+        }
+        return Arrays.copyOf(latencies, n);
+    }
+
+    // Reads one HTTP/1.1 response (status line, headers, Content-Length body) and returns its status.
+    private static int readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        int status = Integer.parseInt(statusLine.split(" ")[1]);
+        int length = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).equalsIgnoreCase("Content-Length")) {
+                length = Integer.parseInt(line.substring(colon + 1).trim());
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            if (in.read() < 0) throw new EOFException("Connection closed mid-body");
+        }
+        return status;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) throw new EOFException("Connection closed");
+            if (c != '\r') sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Indexed password history: raw 32-byte SHA-256 digests instead of hex lines.
+     *
+     * - password_history.idx: a 16-byte header (magic, count) followed by the digests, sorted and
+     *   unique, memory-mapped. A lookup is an interpolation search (digests are uniformly spread)
+     *   alternating with bisection steps, so it stays O(log n) and allocates nothing.
+     * - password_history.log: digests added since the last merge, appended raw. They are also kept
+     *   in a small sorted in-memory buffer that lookups check before the index.
+     * - Once the log holds mergeAfter digests a background thread merges buffer and index into a new
+     *   index file and swaps it in. The log is first rotated to .log.merging, so after a crash every
+     *   digest is either in the index or in a log that the next open replays.
+     * - On first open an existing password_history.txt (one hex digest per line) is imported and
+     *   renamed to password_history.txt.imported.
+     * - Appends are group-committed: add() queues the digest, and a flusher thread writes and fsyncs
+     *   everything queued within one window (-Dpassword.groupCommitMs) together before add()
+     *   returns, so concurrent callers share one fsync. 0 fsyncs every add.
+     * - A failed write or fsync fails only the adds it covered: their digests stay queued, whatever
+     *   part of them reached the log is cut off, and the next flush writes them again.
+     */
+    static final class HistoryStore implements Closeable {
+        private static final int MAGIC = 0x50574831; // "PWH1"
+        private static final int HEADER = 16;
+        private static final int DIGEST = 32;
+        private static final int REGION_SHIFT = 25; // 2^25 digests (1 GB) per mapped region
+        private static final int MERGE_AFTER = Integer.getInteger("password.mergeAfter", 4096);
+        private static final long GROUP_COMMIT_MS = Long.getLong("password.groupCommitMs", 5);
+
+        private final Path textFile;
+        private final Path idxFile;
+        private final Path logFile;
+        private final Path mergingFile;
+        private volatile Index index;
+        // digests not merged yet, sorted, 4 longs each; guarded by this
+        private long[] buffer = new long[4 * 64];
+        private int buffered;
+        // digests added but not written to the log yet; guarded by this
+        private ByteBuffer pending = ByteBuffer.allocate(DIGEST * 64);
+        private long appendedSeq;
+        private long durableSeq;
+        // the last failed flush and the highest sequence number it covered; guarded by this
+        private IOException failure;
+        private long failedSeq;
+        // held while writing, fsyncing or rotating the log; taken before this, never after
+        private final Object ioLock = new Object();
+        // guarded by ioLock
+        private FileChannel log;
+        // log length to cut back to before the next write, after a failed one (-1 = none); guarded by ioLock
+        private long truncateTo = -1;
+        private int logged;
+        private boolean merging;
+        private Thread flusher;
+        private volatile boolean closed;
+        private IOException mergeFailure;
+
+        private HistoryStore(Path textFile) {
+            String base = textFile.getFileName().toString().replaceFirst("\\.txt$", "");
+            this.textFile = textFile;
+            this.idxFile = textFile.resolveSibling(base + ".idx");
+            this.logFile = textFile.resolveSibling(base + ".log");
+            this.mergingFile = textFile.resolveSibling(base + ".log.merging");
+        }
+
+        // Opens the store kept next to the given text history file, importing that file on first use.
+        static HistoryStore open(Path textFile) throws IOException {
+            HistoryStore h = new HistoryStore(textFile);
+            if (!Files.exists(h.idxFile)) {
+                long[] imported = Files.exists(textFile) ? readHexFile(textFile) : new long[0];
+                int n = sortUnique(imported, imported.length / 4);
+                // like a merge: a crash mid-write leaves only the .tmp, and the next start imports again
+                Path tmp = h.idxFile.resolveSibling(h.idxFile.getFileName() + ".tmp");
+                writeIndex(tmp, Index.EMPTY, imported, n);
+                Files.move(tmp, h.idxFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (Files.exists(textFile)) {
+                    Files.move(textFile, textFile.resolveSibling(textFile.getFileName() + ".imported"),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            h.index = Index.map(h.idxFile);
+            for (Path p : new Path[] {h.mergingFile, h.logFile}) {
+                if (!Files.exists(p)) continue;
+                ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(p));
+                while (b.remaining() >= DIGEST) { // a torn last record is ignored
+                    h.insert(b.getLong(), b.getLong(), b.getLong(), b.getLong());
+                }
+            }
+            h.log = openLog(h.logFile);
+            boolean merge;
+            synchronized (h) {
+                h.logged = (int) (h.log.size() / DIGEST);
+                merge = h.merging = Files.exists(h.mergingFile) || h.logged >= MERGE_AFTER;
+            }
+            if (merge) h.startMerge();
+            if (GROUP_COMMIT_MS > 0) {
+                h.flusher = new Thread(h::flushLoop, "history-flusher");
+                h.flusher.setDaemon(true);
+                h.flusher.start();
+            }
+            return h;
+        }
+
+        boolean contains(byte[] digest) {
+            long k0 = word(digest, 0), k1 = word(digest, 8), k2 = word(digest, 16), k3 = word(digest, 24);
+            // buffer first: a merge puts a digest in the index before taking it out of the buffer
+            synchronized (this) {
+                if (findBuffered(k0, k1, k2, k3) >= 0) return true;
+            }
+            return index.contains(k0, k1, k2, k3);
+        }
+
+        // Returns false when the digest was already in the history; otherwise returns once it is on disk.
+        boolean add(byte[] digest) throws IOException {
+            long seq;
+            boolean merge = false;
+            synchronized (this) {
+                if (mergeFailure != null) throw mergeFailure;
+                long k0 = word(digest, 0), k1 = word(digest, 8), k2 = word(digest, 16), k3 = word(digest, 24);
+                if (index.contains(k0, k1, k2, k3) || !insert(k0, k1, k2, k3)) return false;
+                if (pending.remaining() < DIGEST) {
+                    ByteBuffer bigger = ByteBuffer.allocate(pending.capacity() * 2);
+                    pending.flip();
+                    pending = bigger.put(pending);
+                }
+                pending.put(digest, 0, DIGEST);
+                seq = ++appendedSeq;
+                if (++logged >= MERGE_AFTER && !merging) merge = merging = true;
+            }
+            if (merge) startMerge();
+            commit(seq);
+            return true;
+        }
+
+        // Blocks until the digest queued as seq is on disk, or throws if a flush that included it
+        // failed (it stays queued and is retried).
+        private void commit(long seq) throws IOException {
+            if (GROUP_COMMIT_MS <= 0) flush();
+            synchronized (this) {
+                while (durableSeq < seq) {
+                    if (failedSeq >= seq) throw failure;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for history commit");
+                    }
+                }
+            }
+        }
+
+        // Writes the queued digests and fsyncs them; only ioLock is held meanwhile, so adds and
+        // lookups go on.
+        private void flush() throws IOException {
+            synchronized (ioLock) {
+                byte[] batch;
+                long seq;
+                synchronized (this) {
+                    if (pending.position() == 0) return;
+                    batch = Arrays.copyOf(pending.array(), pending.position());
+                    pending.clear();
+                    seq = appendedSeq;
+                }
+                try {
+                    repairLog();
+                    truncateTo = log.size(); // until this batch is durable
+                    ByteBuffer buf = ByteBuffer.wrap(batch);
+                    while (buf.hasRemaining()) log.write(buf);
+                    log.force(false);
+                    truncateTo = -1;
+                    HISTORY_FSYNCS.increment();
+                } catch (IOException e) {
+                    synchronized (this) {
+                        // back to the front of the queue, ahead of digests added meanwhile
+                        ByteBuffer requeued = ByteBuffer.allocate(Math.max(pending.capacity(), batch.length + pending.position()));
+                        requeued.put(batch);
+                        pending.flip();
+                        pending = requeued.put(pending);
+                        failure = e;
+                        failedSeq = seq;
+                        notifyAll();
+                    }
+                    throw e;
+                }
+                synchronized (this) {
+                    durableSeq = seq;
+                    notifyAll();
+                }
+            }
+        }
+
+        // Called with ioLock held: reopens the log if a failure closed it and cuts off a failed write.
+        private void repairLog() throws IOException {
+            if (!log.isOpen()) log = openLog(logFile);
+            if (truncateTo >= 0) {
+                log.truncate(truncateTo);
+                truncateTo = -1;
+            }
+        }
+
+        private static FileChannel openLog(Path p) throws IOException {
+            return FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        private void flushLoop() {
+            boolean failing = false;
+            while (!closed) {
+                try {
+                    Thread.sleep(GROUP_COMMIT_MS);
+                    flush();
+                    if (failing) System.out.println("Password history writes recovered.");
+                    failing = false;
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    // the digests stay queued; report once per outage, then keep retrying
+                    if (!failing) System.out.println("Failed to save password history (will retry): " + e.getMessage());
+                    failing = true;
+                }
+            }
+        }
+
+        synchronized long size() {
+            return index.count + buffered;
+        }
+
+        // Inserts into the sorted buffer; false when it is already there (or, during replay, in the index).
+        private synchronized boolean insert(long k0, long k1, long k2, long k3) {
+            int pos = findBuffered(k0, k1, k2, k3);
+            if (pos >= 0 || index != null && index.contains(k0, k1, k2, k3)) return false;
+            pos = -pos - 1;
+            if (4 * (buffered + 1) > buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            System.arraycopy(buffer, 4 * pos, buffer, 4 * pos + 4, 4 * (buffered - pos));
+            buffer[4 * pos] = k0;
+            buffer[4 * pos + 1] = k1;
+            buffer[4 * pos + 2] = k2;
+            buffer[4 * pos + 3] = k3;
+            buffered++;
+            return true;
+        }
+
+        // Index of the digest in the buffer, or -(insertion point) - 1.
+        private int findBuffered(long k0, long k1, long k2, long k3) {
+            int lo = 0, hi = buffered - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = compare(buffer[4 * mid], buffer[4 * mid + 1], buffer[4 * mid + 2], buffer[4 * mid + 3], k0, k1, k2, k3);
+                if (c == 0) return mid;
+                if (c < 0) lo = mid + 1;
+                else hi = mid - 1;
+            }
+            return -lo - 1;
+        }
+
+        // Rotates the log and merges everything buffered so far in the background. The caller has set
+        // merging (and holds no lock). Digests still queued are buffered too, so they go into the merge
+        // as well as into the new log.
+        private void startMerge() throws IOException {
+            long[] batch;
+            int n;
+            Index base;
+            try {
+                synchronized (ioLock) {
+                    repairLog();
+                    log.force(false);
+                    log.close();
+                    if (Files.exists(mergingFile)) {
+                        // left by an interrupted merge: its digests are buffered too, so fold the log into it
+                        Files.write(mergingFile, Files.readAllBytes(logFile), StandardOpenOption.APPEND);
+                        Files.delete(logFile);
+                    } else {
+                        Files.move(logFile, mergingFile, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    log = openLog(logFile);
+                    synchronized (this) {
+                        logged = 0;
+                        batch = Arrays.copyOf(buffer, 4 * buffered);
+                        n = buffered;
+                        base = index;
+                    }
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    merging = false; // the next add tries again
+                    notifyAll();
+                }
+                throw e;
+            }
+            Thread merger = new Thread(() -> merge(base, batch, n), "history-merger");
+            merger.setDaemon(true);
+            merger.start();
+        }
+
+        private void merge(Index base, long[] batch, int n) {
+            try {
+                Path tmp = idxFile.resolveSibling(idxFile.getFileName() + ".tmp");
+                writeIndex(tmp, base, batch, n);
+                Files.move(tmp, idxFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Index merged = Index.map(idxFile);
+                synchronized (this) {
+                    index = merged;
+                    // drop the merged digests; ones added since the rotation stay buffered
+                    int kept = 0;
+                    for (int i = 0; i < buffered; i++) {
+                        int o = 4 * i;
+                        if (merged.contains(buffer[o], buffer[o + 1], buffer[o + 2], buffer[o + 3])) continue;
+                        System.arraycopy(buffer, o, buffer, 4 * kept++, 4);
+                    }
+                    buffered = kept;
+                    Files.deleteIfExists(mergingFile);
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    mergeFailure = e;
+                }
+            } finally {
+                synchronized (this) {
+                    merging = false;
+                    notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            // no interrupt: interrupting a thread inside FileChannel I/O closes the channel
+            try {
+                if (flusher != null) flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flush();
+            closeLog();
+        }
+
+        private void closeLog() throws IOException {
+            synchronized (this) {
+                while (merging) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            synchronized (ioLock) {
+                log.force(false);
+                log.close();
+            }
+            synchronized (this) {
+                if (mergeFailure != null) throw mergeFailure;
+            }
+        }
+
+        // Writes the union of an index and n sorted digests as a new sorted, unique index file.
+        private static void writeIndex(Path p, Index base, long[] add, int n) throws IOException {
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer out = ByteBuffer.allocate(1 << 16);
+                out.position(HEADER);
+                long count = 0, i = 0;
+                int j = 0;
+                long p0 = 0, p1 = 0, p2 = 0, p3 = 0; // last written, for dedup
+                while (i < base.count || j < n) {
+                    long k0, k1, k2, k3;
+                    if (j >= n || i < base.count && compare(base.word(i, 0), base.word(i, 1), base.word(i, 2), base.word(i, 3),
+                            add[4 * j], add[4 * j + 1], add[4 * j + 2], add[4 * j + 3]) <= 0) {
+                        k0 = base.word(i, 0); k1 = base.word(i, 1); k2 = base.word(i, 2); k3 = base.word(i, 3);
+                        i++;
+                    } else {
+                        k0 = add[4 * j]; k1 = add[4 * j + 1]; k2 = add[4 * j + 2]; k3 = add[4 * j + 3];
+                        j++;
+                    }
+                    if (count > 0 && compare(p0, p1, p2, p3, k0, k1, k2, k3) == 0) continue;
+                    if (out.remaining() < DIGEST) {
+                        out.flip();
+                        while (out.hasRemaining()) ch.write(out);
+                        out.clear();
+                    }
+                    out.putLong(k0).putLong(k1).putLong(k2).putLong(k3);
+                    p0 = k0; p1 = k1; p2 = k2; p3 = k3;
+                    count++;
+                }
+                out.flip();
+                while (out.hasRemaining()) ch.write(out);
+                ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(0).putLong(count);
+                header.flip();
+                ch.write(header, 0);
+                ch.force(true);
+            }
+        }
+
+        // Hex digests, one per line, as 4 longs each; lines that aren't 64 hex characters are skipped.
+        private static long[] readHexFile(Path p) throws IOException {
+            long[] words = new long[4 * 1024];
+            int n = 0;
+            try (BufferedReader br = Files.newBufferedReader(p, StandardCharsets.ISO_8859_1)) {
+                String line;
+                next:
+                while ((line = br.readLine()) != null) {
+                    if (line.length() != 2 * DIGEST) continue;
+                    if (4 * (n + 1) > words.length) words = Arrays.copyOf(words, words.length * 2);
+                    for (int w = 0; w < 4; w++) {
+                        long v = 0;
+                        for (int c = 0; c < 16; c++) {
+                            int d = Character.digit(line.charAt(16 * w + c), 16);
+                            if (d < 0) continue next;
+                            v = v << 4 | d;
+                        }
+                        words[4 * n + w] = v;
+                    }
+                    n++;
+                }
+            }
+            return Arrays.copyOf(words, 4 * n);
+        }
+
+        // Sorts n digests (4 longs each) in place and drops repeats; returns the new count.
+        private static int sortUnique(long[] a, int n) {
+            quicksort(a, 0, n - 1);
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                if (kept > 0 && compare(a[4 * (kept - 1)], a[4 * (kept - 1) + 1], a[4 * (kept - 1) + 2], a[4 * (kept - 1) + 3],
+                        a[4 * i], a[4 * i + 1], a[4 * i + 2], a[4 * i + 3]) == 0) continue;
+                System.arraycopy(a, 4 * i, a, 4 * kept++, 4);
+            }
+            return kept;
+        }
+
+        private static void quicksort(long[] a, int lo, int hi) {
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                long q0 = a[4 * mid], q1 = a[4 * mid + 1], q2 = a[4 * mid + 2], q3 = a[4 * mid + 3];
+                int i = lo, j = hi;
+                while (i <= j) {
+                    while (compare(a[4 * i], a[4 * i + 1], a[4 * i + 2], a[4 * i + 3], q0, q1, q2, q3) < 0) i++;
+                    while (compare(a[4 * j], a[4 * j + 1], a[4 * j + 2], a[4 * j + 3], q0, q1, q2, q3) > 0) j--;
+                    if (i <= j) {
+                        for (int w = 0; w < 4; w++) {
+                            long t = a[4 * i + w];
+                            a[4 * i + w] = a[4 * j + w];
+                            a[4 * j + w] = t;
+                        }
+                        i++;
+                        j--;
+                    }
+                }
+                // recurse into the smaller side, loop on the larger one
+                if (j - lo < hi - i) {
+                    quicksort(a, lo, j);
+                    lo = i;
+                } else {
+                    quicksort(a, i, hi);
+                    hi = j;
+                }
+            }
+        }
+
+        private static long word(byte[] d, int off) {
+            long v = 0;
+            for (int i = 0; i < 8; i++) v = v << 8 | (d[off + i] & 0xFF);
+            return v;
+        }
+
+        // Unsigned lexicographic order, the same as comparing the digest bytes.
+        private static int compare(long a0, long a1, long a2, long a3, long b0, long b1, long b2, long b3) {
+            int c = Long.compareUnsigned(a0, b0);
+            if (c == 0) c = Long.compareUnsigned(a1, b1);
+            if (c == 0) c = Long.compareUnsigned(a2, b2);
+            if (c == 0) c = Long.compareUnsigned(a3, b3);
+            return c;
+        }
+
+        // A mapped index file; immutable once mapped.
+        private static final class Index {
+            static final Index EMPTY = new Index(new MappedByteBuffer[0], 0);
+
+            final MappedByteBuffer[] regions;
+            final long count;
+
+            private Index(MappedByteBuffer[] regions, long count) {
+                this.regions = regions;
+                this.count = count;
+            }
+
+            static Index map(Path p) throws IOException {
+                try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER);
+                    while (header.hasRemaining() && ch.read(header) >= 0) {
+                    }
+                    header.flip();
+                    if (header.remaining() < HEADER || header.getInt() != MAGIC) throw new IOException("Not a password history index: " + p);
+                    header.getInt();
+                    long count = header.getLong();
+                    if (HEADER + count * DIGEST > ch.size()) throw new IOException("Truncated password history index: " + p);
+                    int n = (int) ((count + (1L << REGION_SHIFT) - 1) >>> REGION_SHIFT);
+                    MappedByteBuffer[] regions = new MappedByteBuffer[n];
+                    for (int r = 0; r < n; r++) {
+                        long first = (long) r << REGION_SHIFT;
+                        long digests = Math.min(1L << REGION_SHIFT, count - first);
+                        regions[r] = ch.map(FileChannel.MapMode.READ_ONLY, HEADER + first * DIGEST, digests * DIGEST);
+                    }
+                    return new Index(regions, count);
+                }
+            }
+
+            long word(long i, int w) {
+                return regions[(int) (i >>> REGION_SHIFT)].getLong((int) (i & ((1L << REGION_SHIFT) - 1)) * DIGEST + 8 * w);
+            }
+
+            // Interpolates on the first word between the bounds, alternating with plain bisection so a
+            // skewed file can't make it worse than twice binary search.
+            boolean contains(long k0, long k1, long k2, long k3) {
+                long lo = 0, hi = count - 1;
+                boolean interpolate = true;
+                while (lo <= hi) {
+                    long mid;
+                    if (interpolate) {
+                        long a = word(lo, 0), b = word(hi, 0);
+                        if (Long.compareUnsigned(k0, a) < 0 || Long.compareUnsigned(k0, b) > 0) return false;
+                        double f = a == b ? 0 : (double) ((k0 - a) >>> 1) / (double) ((b - a) >>> 1);
+                        mid = lo + (long) (f * (hi - lo));
+                    } else {
+                        mid = (lo + hi) >>> 1;
+                    }
+                    interpolate = !interpolate;
+                    int c = compare(word(mid, 0), word(mid, 1), word(mid, 2), word(mid, 3), k0, k1, k2, k3);
+                    if (c == 0) return true;
+                    if (c < 0) lo = mid + 1;
+                    else hi = mid - 1;
+                }
+                return false;
+            }
+        }
+    }
+
+    // ====== Parity Check ======
+    // java PasswordStrengthAnalyzer paritycheck [passwords] [seed]
+    // Scores a random corpus (default 2^20 passwords, seed 42) with scoreBits and with the scoring it
+    // replaced, prints the first mismatches and exits with status 1 if there are any.
+    private static boolean runParityCheck(String[] args) {
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 20;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        int mismatches = 0;
+        for (String p : passwordCorpus(size, seed)) {
+            int expected = referenceScore(p);
+            int actual = scoreBits(p) & (SCORE_MASK | CHECK_MASK << CHECK_SHIFT);
+            if (actual != expected && mismatches++ < 10) {
+                System.out.printf("Mismatch for %s: expected %x, got %x%n", escape(p), expected, actual);
+            }
+        }
+        System.out.println(mismatches == 0 ? "PASS: scoreBits matches the reference scoring on " + size + " passwords"
+                : "FAIL: " + mismatches + " of " + size + " passwords scored differently");
+        return mismatches == 0;
+    }
+
+    // Passwords from a mix of ASCII classes, runs and sequences, plus the non-ASCII characters whose
+    // lowercase form is special: U+0130 (two chars), U+212A (Kelvin, lowercases to 'k'), final sigma.
+    static String[] passwordCorpus(int size, long seed) {
+        String alphabet = "abcxyzABCXYZ0189!@ #qweasdzxc\u0130\u212A\u03A3\u00E9\u00DF";
+        String[] pieces = {"abc", "xyz0", "YZ01", "789", "aaa", "111", "qwerty", "password", "admin", "LETMEIN", "Dragon", "\u0130\u0130\u0130"};
+        Random rnd = new Random(seed);
+        String[] corpus = new String[size];
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < size; n++) {
+            sb.setLength(0);
+            int length = rnd.nextInt(20);
+            while (sb.length() < length) {
+                if (rnd.nextInt(8) == 0) sb.append(pieces[rnd.nextInt(pieces.length)]);
+                else sb.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+            }
+            corpus[n] = sb.toString();
+        }
+        return corpus;
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (char c : s.toCharArray()) {
+            if (c >= 0x20 && c < 0x7f) sb.append(c);
+            else sb.append(String.format("\\u%04X", (int) c));
+        }
+        return sb.toString();
+    }
+
+    // The scoring analyze() did before scoreBits (character classes, dictionary, then the repeat and
+    // sequence checks with toLowerCase/contains), as score | failed checks << CHECK_SHIFT.
+    static int referenceScore(String password) {
+        int score = 0;
+        int failed = 0;
         if (password.length() >= 12) {
             score += 3;
         } else if (password.length() >= 8) {
             score += 2;
         } else {
             score += 1;
-            System.out.println("Suggestion: Make the password at least 8 characters.");
+            failed |= Check.LENGTH.bit();
         }
-
-        // Uppercase, lowercase, number, special char checks
         boolean hasUpper = false, hasLower = false, hasDigit = false, hasSpecial = false;
         for (char c : password.toCharArray()) {
             if (Character.isUpperCase(c)) hasUpper = true;
@@ -61,99 +1386,602 @@ public class PasswordStrengthAnalyzer {
             else if (Character.isDigit(c)) hasDigit = true;
             else hasSpecial = true;
         }
-
         if (hasUpper) score++;
-        else System.out.println("Suggestion: Add uppercase letters.");
-
+        else failed |= Check.UPPERCASE.bit();
         if (hasLower) score++;
-        else System.out.println("Suggestion: Add lowercase letters.");
-
+        else failed |= Check.LOWERCASE.bit();
         if (hasDigit) score++;
-        else System.out.println("Suggestion: Add numbers.");
-
+        else failed |= Check.DIGIT.bit();
         if (hasSpecial) score++;
-        else System.out.println("Suggestion: Add special characters (!,@,#,$, etc.).");
-
-        // Dictionary word check
-        String lowerPass = password.toLowerCase();
-        for (String word : DICTIONARY_WORDS) {
-            if (lowerPass.contains(word)) {
-                System.out.println("Warning: Avoid common word \"" + word + "\" in your password.");
-                score -= 2; // penalty
-                break;
-            }
+        else failed |= Check.SPECIAL.bit();
+        if (DICTIONARY.firstMatch(password) != null) {
+            score -= 2;
+            failed |= Check.DICTIONARY.bit();
         }
-
-        // Repeating pattern check
-        if (hasRepeatingPattern(password)) {
-            System.out.println("Warning: Your password has repeating characters or patterns.");
+        if (referenceRepeating(password)) {
             score -= 1;
+            failed |= Check.REPEATING.bit();
         }
-
-        // Score bounds
-        if (score < 0) score = 0;
-        if (score > 10) score = 10;
-
-        return score;
+        score = Math.max(0, Math.min(10, score));
+        return score | failed << CHECK_SHIFT;
     }
 
-    private static boolean hasRepeatingPattern(String password) {
-        // Check for 3+ repeating same char
+    private static boolean referenceRepeating(String password) {
         for (int i = 0; i < password.length() - 2; i++) {
             if (password.charAt(i) == password.charAt(i + 1) && password.charAt(i) == password.charAt(i + 2)) {
                 return true;
             }
         }
-
-        // Check for simple sequences like abc, 123
         String lower = password.toLowerCase();
         String sequences = "abcdefghijklmnopqrstuvwxyz0123456789";
         for (int i = 0; i < sequences.length() - 2; i++) {
-            String seq = sequences.substring(i, i + 3);
-            if (lower.contains(seq)) {
-                return true;
-            }
+            if (lower.contains(sequences.substring(i, i + 3))) return true;
         }
-
         return false;
     }
 
-    // ====== Password History Feature ======
-    private static String hashPassword(String password) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hashedBytes = md.digest(password.getBytes());
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hashedBytes) {
-                sb.append(String.format("%02x", b));
+    // ====== Breached Passwords ======
+    // java PasswordStrengthAnalyzer breachimport <corpus.txt|-> <breaches.bidx>
+    // Builds the breach index from a corpus of hex SHA-1 or SHA-256 hashes, one per line, optionally
+    // followed by ":count" (the format of the Have I Been Pwned downloads). Passwords are then checked
+    // against it offline with -Dpassword.breaches=breaches.bidx.
+    private static void runBreachImport(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: java PasswordStrengthAnalyzer breachimport <corpus.txt|-> <breaches.bidx>");
+            return;
+        }
+        long t0 = System.nanoTime();
+        long lines = 0, skipped = 0;
+        BreachIndex.Builder builder = null;
+        try (BufferedReader in = args[1].equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.ISO_8859_1))
+                : Files.newBufferedReader(Paths.get(args[1]), StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines++;
+                int colon = line.indexOf(':');
+                int hexLength = colon < 0 ? line.trim().length() : colon;
+                if (builder == null) {
+                    if (hexLength != 40 && hexLength != 64) {
+                        skipped++;
+                        continue;
+                    }
+                    builder = new BreachIndex.Builder(Paths.get(args[2]), hexLength / 2);
+                }
+                long key, count;
+                try {
+                    if (hexLength != 2 * builder.digestLength) throw new NumberFormatException();
+                    key = Long.parseUnsignedLong(line.substring(0, 16), 16);
+                    count = colon < 0 ? 1 : Long.parseLong(line.substring(colon + 1).trim());
+                } catch (NumberFormatException e) {
+                    skipped++;
+                    continue;
+                }
+                if (count < 1) {
+                    skipped++;
+                    continue;
+                }
+                builder.add(key, count);
+            }
+            if (builder == null) {
+                System.out.println("No SHA-1 or SHA-256 hashes found in " + args[1]);
+                return;
             }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Error: SHA-256 algorithm not found.");
+            long hashes = builder.finish();
+            System.out.printf("Imported %d hashes (%d distinct, %d lines skipped) into %s in %.1f s%n",
+                    lines - skipped, hashes, skipped, args[2], (System.nanoTime() - t0) / 1e9);
+        } finally {
+            if (builder != null) builder.close();
         }
     }
 
-    private static boolean isPasswordUsedBefore(String password) throws IOException {
-        String hashed = hashPassword(password);
-        File file = new File(HISTORY_FILE);
-        if (!file.exists()) return false;
+    private static BreachIndex openBreaches(String file) {
+        if (file == null) return null;
+        try {
+            return BreachIndex.open(Paths.get(file));
+        } catch (IOException e) {
+            System.out.println("Failed to open breach index " + file + ": " + e.getMessage() + " (breach check disabled)");
+            return null;
+        }
+    }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.equals(hashed)) {
-                    return true;
+    // Score penalty for a password seen count times in breaches: 3, plus one per power of ten, up to 6.
+    static int breachPenalty(int count) {
+        if (count <= 0) return 0;
+        return 3 + Math.min(3, (int) Math.log10(count));
+    }
+
+    /**
+     * Offline index of breached-password hashes, built once from a corpus and memory-mapped.
+     *
+     * Only the first 8 bytes of each hash are kept. The first 2 bytes pick one of 2^16 buckets; each
+     * entry stores the next 6 bytes and the occurrence count (saturated at 65535) in one long. With
+     * 500M hashes a bucket holds about 7600 entries, so a false match on the 48 stored bits has a
+     * chance of about 3e-11 per lookup.
+     *
+     * File layout: a 16-byte header (magic, digest length, entry count), the bucket offset table
+     * (2^16 + 1 longs: the first entry of each bucket, then the total), then the entries, sorted
+     * within each bucket. Hashes are uniform, so a lookup interpolates inside the bucket and usually
+     * lands on the right entry or next to it: one page of the offset table and one or two pages of
+     * entries.
+     *
+     * The builder never holds the corpus in memory: it spills entries to 256 files by their first
+     * byte, then sorts and merges one spill file at a time.
+     */
+    static final class BreachIndex {
+        private static final int MAGIC = 0x50574231; // "PWB1"
+        private static final int HEADER = 16;
+        private static final int BUCKETS = 1 << 16;
+        private static final int OFFSETS = 8 * (BUCKETS + 1);
+        private static final int REGION_SHIFT = 27; // 2^27 entries (1 GB) per mapped region
+        static final int MAX_COUNT = 0xFFFF;
+        private static final int PAGE_ENTRIES = 4096 / 8;
+
+        private final DigestPool digests;
+        private final long count;
+        private final MappedByteBuffer offsets;
+        private final MappedByteBuffer[] regions;
+
+        private BreachIndex(String algorithm, long count, MappedByteBuffer offsets, MappedByteBuffer[] regions) {
+            this.digests = new DigestPool(algorithm);
+            this.count = count;
+            this.offsets = offsets;
+            this.regions = regions;
+        }
+
+        static BreachIndex open(Path p) throws IOException {
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                while (header.hasRemaining() && ch.read(header) >= 0) {
+                }
+                header.flip();
+                if (header.remaining() < HEADER || header.getInt() != MAGIC) throw new IOException("Not a breach index: " + p);
+                int digestLength = header.getInt();
+                long count = header.getLong();
+                if (digestLength != 20 && digestLength != 32) throw new IOException("Unknown hash length " + digestLength + " in " + p);
+                if (HEADER + OFFSETS + 8 * count > ch.size()) throw new IOException("Truncated breach index: " + p);
+                MappedByteBuffer offsets = ch.map(FileChannel.MapMode.READ_ONLY, HEADER, OFFSETS);
+                int n = (int) ((count + (1L << REGION_SHIFT) - 1) >>> REGION_SHIFT);
+                MappedByteBuffer[] regions = new MappedByteBuffer[n];
+                for (int r = 0; r < n; r++) {
+                    long first = (long) r << REGION_SHIFT;
+                    long entries = Math.min(1L << REGION_SHIFT, count - first);
+                    regions[r] = ch.map(FileChannel.MapMode.READ_ONLY, HEADER + OFFSETS + 8 * first, 8 * entries);
                 }
+                return new BreachIndex(digestLength == 20 ? "SHA-1" : "SHA-256", count, offsets, regions);
+            }
+        }
+
+        long size() {
+            return count;
+        }
+
+        // How often the password appears in the corpus (saturated at MAX_COUNT), 0 when it doesn't.
+        int occurrences(String password) {
+            byte[] hash = digests.digest(password.getBytes(StandardCharsets.UTF_8));
+            long key = 0;
+            for (int i = 0; i < 8; i++) key = key << 8 | (hash[i] & 0xFF);
+            return occurrences(key);
+        }
+
+        // Same for a hash given by its first 8 bytes.
+        int occurrences(long key) {
+            int bucket = (int) (key >>> 48);
+            long rest = key & 0xFFFFFFFFFFFFL;
+            long lo = offsets.getLong(8 * bucket), hi = offsets.getLong(8 * bucket + 8) - 1;
+            // the bucket's entries are spread evenly, so probe where rest sits between the keys just
+            // outside the window (read by earlier probes; to start with, the bounds of the bucket's key
+            // space); once the window fits in a page, walk from the probe to rest
+            long below = -1, above = 1L << 48;
+            while (lo <= hi) {
+                long mid = lo - 1 + (long) ((double) (rest - below) / (above - below) * (hi - lo + 2));
+                mid = Math.max(lo, Math.min(hi, mid));
+                long e = entry(mid);
+                long k = e >>> 16;
+                if (hi - lo < PAGE_ENTRIES) {
+                    while (k < rest && mid < hi) k = (e = entry(++mid)) >>> 16;
+                    while (k > rest && mid > lo) k = (e = entry(--mid)) >>> 16;
+                    return k == rest ? (int) (e & MAX_COUNT) : 0;
+                }
+                if (k == rest) return (int) (e & MAX_COUNT);
+                if (k < rest) {
+                    lo = mid + 1;
+                    below = k;
+                } else {
+                    hi = mid - 1;
+                    above = k;
+                }
+            }
+            return 0;
+        }
+
+        private long entry(long i) {
+            return regions[(int) (i >>> REGION_SHIFT)].getLong((int) (i & ((1L << REGION_SHIFT) - 1)) * 8);
+        }
+
+        // Collects (key, count) pairs, then writes the index; repeated keys have their counts added.
+        static final class Builder implements Closeable {
+            private static final int SPILLS = 256;
+            private static final int RECORD = 12; // key, count
+
+            final int digestLength;
+            private final Path target;
+            private final Path spillDir;
+            private final FileChannel[] spills = new FileChannel[SPILLS];
+            private final ByteBuffer[] pending = new ByteBuffer[SPILLS];
+
+            Builder(Path target, int digestLength) throws IOException {
+                this.target = target;
+                this.digestLength = digestLength;
+                Path parent = target.toAbsolutePath().getParent();
+                this.spillDir = Files.createTempDirectory(parent, target.getFileName() + ".spill");
+            }
+
+            void add(long key, long count) throws IOException {
+                int s = (int) (key >>> 56);
+                ByteBuffer b = pending[s];
+                if (b == null) {
+                    b = pending[s] = ByteBuffer.allocate(RECORD * 4096);
+                    spills[s] = FileChannel.open(spillDir.resolve(s + ".spill"), StandardOpenOption.CREATE,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                }
+                b.putLong(key).putInt((int) Math.min(count, MAX_COUNT));
+                if (!b.hasRemaining()) flush(s);
+            }
+
+            private void flush(int s) throws IOException {
+                ByteBuffer b = pending[s];
+                b.flip();
+                while (b.hasRemaining()) spills[s].write(b);
+                b.clear();
+            }
+
+            // Writes the index (through a temp file, then an atomic rename); returns the distinct hashes.
+            long finish() throws IOException {
+                Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+                long written = 0;
+                try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer table = ByteBuffer.allocate(OFFSETS);
+                    ByteBuffer out = ByteBuffer.allocate(1 << 16);
+                    ch.position(HEADER + OFFSETS);
+                    int bucket = 0;
+                    for (int s = 0; s < SPILLS; s++) {
+                        if (spills[s] == null) continue;
+                        flush(s);
+                        int n = (int) (spills[s].size() / RECORD);
+                        long[] keys = new long[n];
+                        int[] counts = new int[n];
+                        ByteBuffer in = spills[s].map(FileChannel.MapMode.READ_ONLY, 0, (long) n * RECORD);
+                        for (int i = 0; i < n; i++) {
+                            keys[i] = in.getLong();
+                            counts[i] = in.getInt();
+                        }
+                        spills[s].close();
+                        spills[s] = null;
+                        pending[s] = null;
+                        Files.delete(spillDir.resolve(s + ".spill"));
+                        sort(keys, counts, 0, n - 1); // one spill shares its top byte, so signed order is fine
+                        for (int i = 0; i < n; ) {
+                            long key = keys[i];
+                            long total = 0;
+                            for (; i < n && keys[i] == key; i++) total += counts[i];
+                            for (int b = (int) (key >>> 48); bucket <= b; bucket++) table.putLong(8 * bucket, written);
+                            if (!out.hasRemaining()) {
+                                out.flip();
+                                while (out.hasRemaining()) ch.write(out);
+                                out.clear();
+                            }
+                            out.putLong((key & 0xFFFFFFFFFFFFL) << 16 | Math.min(total, MAX_COUNT));
+                            written++;
+                        }
+                    }
+                    out.flip();
+                    while (out.hasRemaining()) ch.write(out);
+                    for (; bucket <= BUCKETS; bucket++) table.putLong(8 * bucket, written);
+                    ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(digestLength).putLong(written);
+                    header.flip();
+                    ch.write(header, 0);
+                    table.clear();
+                    ch.write(table, HEADER);
+                    ch.force(true);
+                }
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return written;
+            }
+
+            // Quicksort of keys, with counts moved alongside.
+            private static void sort(long[] keys, int[] counts, int lo, int hi) {
+                while (lo < hi) {
+                    long pivot = keys[(lo + hi) >>> 1];
+                    int i = lo, j = hi;
+                    while (i <= j) {
+                        while (keys[i] < pivot) i++;
+                        while (keys[j] > pivot) j--;
+                        if (i <= j) {
+                            long k = keys[i];
+                            keys[i] = keys[j];
+                            keys[j] = k;
+                            int c = counts[i];
+                            counts[i] = counts[j];
+                            counts[j] = c;
+                            i++;
+                            j--;
+                        }
+                    }
+                    // recurse into the smaller side, loop on the larger one
+                    if (j - lo < hi - i) {
+                        sort(keys, counts, lo, j);
+                        lo = i;
+                    } else {
+                        sort(keys, counts, i, hi);
+                        hi = j;
+                    }
+                }
+            }
+
+            // Removes whatever spill files are left (all of them when finish wasn't reached).
+            @Override
+            public void close() throws IOException {
+                for (int s = 0; s < SPILLS; s++) {
+                    if (spills[s] == null) continue;
+                    spills[s].close();
+                    Files.deleteIfExists(spillDir.resolve(s + ".spill"));
+                }
+                Files.deleteIfExists(spillDir);
             }
         }
-        return false;
     }
 
-    private static void savePassword(String password) throws IOException {
-        String hashed = hashPassword(password);
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(HISTORY_FILE, true))) {
-            bw.write(hashed);
-            bw.newLine();
+    /**
+     * Aho-Corasick automaton over a word list: finds every dictionary word inside a password in one
+     * pass, however many words there are. Matching is case-insensitive (words are lowercased on
+     * load, password characters as they are read).
+     *
+     * The trie lives in primitive arrays (no node objects): node n's outgoing edges are
+     * edgeChar/edgeTarget[firstEdge[n] .. firstEdge[n + 1]), sorted by character and binary-searched.
+     * fail[n] is the longest proper suffix of n's string that is also a trie path; wordLength[n] is
+     * the length of the word ending at n (0 = none) and output[n] the nearest fail ancestor that ends
+     * a word, so all matches at a position are found without walking every suffix. Small automata
+     * (the built-in list, short custom lists) also get a dense table of every ASCII transition, fail
+     * links already followed, so a step is one array read. Built once, then read-only and safe to
+     * share between threads.
+     */
+    static final class DictionaryMatcher {
+        private final int[] firstEdge;
+        private final char[] edgeChar;
+        private final int[] edgeTarget;
+        private final int[] fail;
+        private final int[] output;
+        private final int[] wordLength;
+        private final int words;
+        // state * 128 + c -> next state for ASCII c, or null when the automaton has over DENSE_NODES nodes;
+        // nextAscii is the same for next(): uppercase folded in, -1 where a word ends
+        private final int[] ascii;
+        private final int[] nextAscii;
+
+        private static final int DENSE_NODES = 8192; // 4 MB table
+
+        interface MatchSink {
+            // A dictionary word occupies text[start, end).
+            void match(int start, int end);
+        }
+
+        // One word per line; blank lines are skipped and repeats count once.
+        static DictionaryMatcher load(Path wordList) throws IOException {
+            Builder b = new Builder();
+            try (BufferedReader br = Files.newBufferedReader(wordList, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = br.readLine()) != null) b.add(line.trim());
+            }
+            return b.build();
+        }
+
+        static DictionaryMatcher of(Collection<String> words) {
+            Builder b = new Builder();
+            for (String w : words) b.add(w);
+            return b.build();
+        }
+
+        private DictionaryMatcher(int[] firstEdge, char[] edgeChar, int[] edgeTarget, int[] wordLength, int words) {
+            this.firstEdge = firstEdge;
+            this.edgeChar = edgeChar;
+            this.edgeTarget = edgeTarget;
+            this.wordLength = wordLength;
+            this.words = words;
+            int nodes = wordLength.length;
+            this.fail = new int[nodes];
+            this.output = new int[nodes];
+            // breadth-first, so a node's fail target is final before its children need it
+            int[] queue = new int[nodes];
+            int head = 0, tail = 0;
+            for (int e = firstEdge[0]; e < firstEdge[1]; e++) queue[tail++] = edgeTarget[e];
+            while (head < tail) {
+                int n = queue[head++];
+                for (int e = firstEdge[n]; e < firstEdge[n + 1]; e++) {
+                    int child = edgeTarget[e];
+                    int f = step(fail[n], edgeChar[e]);
+                    fail[child] = f;
+                    output[child] = wordLength[f] > 0 ? f : output[f];
+                    queue[tail++] = child;
+                }
+            }
+            if (nodes > DENSE_NODES) {
+                this.ascii = null;
+                this.nextAscii = null;
+                return;
+            }
+            int[] table = new int[nodes * 128];
+            for (int i = -1; i < tail; i++) {
+                int n = i < 0 ? 0 : queue[i];
+                // a missing edge goes where the fail node's does; BFS order means that row is done
+                if (n != 0) System.arraycopy(table, fail[n] * 128, table, n * 128, 128);
+                for (int e = firstEdge[n]; e < firstEdge[n + 1]; e++) {
+                    if (edgeChar[e] < 128) table[n * 128 + edgeChar[e]] = edgeTarget[e];
+                }
+            }
+            this.ascii = table;
+            int[] next = new int[table.length];
+            for (int i = 0; i < table.length; i++) {
+                int c = Character.toLowerCase(i & 127), s = table[i - (i & 127) + c];
+                next[i] = wordLength[s] > 0 || output[s] != 0 ? -1 : s;
+            }
+            this.nextAscii = next;
+        }
+
+        int size() {
+            return words;
+        }
+
+        int nodes() {
+            return wordLength.length;
+        }
+
+        // Bytes held by the automaton's arrays.
+        long footprintBytes() {
+            return 4L * (firstEdge.length + edgeTarget.length + fail.length + output.length + wordLength.length
+                    + (ascii == null ? 0 : 2L * ascii.length)) + 2L * edgeChar.length;
+        }
+
+        // Reports every occurrence of every word, in order of end position.
+        void forEachMatch(CharSequence text, MatchSink sink) {
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                state = step(state, Character.toLowerCase(text.charAt(i)));
+                for (int n = wordLength[state] > 0 ? state : output[state]; n != 0; n = output[n]) {
+                    sink.match(i + 1 - wordLength[n], i + 1);
+                }
+            }
+        }
+
+        // One step for callers that walk the text themselves: start from state 0 and feed chars in
+        // order; returns -1 once a word ends at c (where firstMatch would stop).
+        int next(int state, char c) {
+            if (c < 128 && nextAscii != null) return nextAscii[state * 128 + c];
+            int s = step(state, Character.toLowerCase(c));
+            return wordLength[s] > 0 || output[s] != 0 ? -1 : s;
+        }
+
+        // {start, end} of the word that ends first (the longest one ending there), or null.
+        int[] firstMatch(CharSequence text) {
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                state = step(state, Character.toLowerCase(text.charAt(i)));
+                int n = wordLength[state] > 0 ? state : output[state];
+                if (n != 0) return new int[] {i + 1 - wordLength[n], i + 1};
+            }
+            return null;
+        }
+
+        List<String> matches(String text) {
+            List<String> found = new ArrayList<>();
+            forEachMatch(text, (start, end) -> found.add(text.substring(start, end).toLowerCase()));
+            return found;
+        }
+
+        // Goto with failure transitions: the deepest node whose string is a suffix of state's string + c.
+        private int step(int state, char c) {
+            if (c < 128 && ascii != null) return ascii[state * 128 + c];
+            while (true) {
+                int lo = firstEdge[state], hi = firstEdge[state + 1] - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    char m = edgeChar[mid];
+                    if (m == c) return edgeTarget[mid];
+                    if (m < c) lo = mid + 1;
+                    else hi = mid - 1;
+                }
+                if (state == 0) return 0;
+                state = fail[state];
+            }
+        }
+
+        // Builds the trie in an open-addressing (parent, char) -> child table, then packs it into the
+        // sorted edge arrays.
+        private static final class Builder {
+            private long[] keys = new long[1 << 16]; // parent << 16 | char, +1 so 0 means empty
+            private int[] children = new int[1 << 16];
+            private int edges;
+            private int[] wordLength = new int[1 << 15];
+            private int nodes = 1; // root
+            private int words;
+
+            void add(String word) {
+                if (word.isEmpty()) return;
+                int n = 0;
+                for (int i = 0; i < word.length(); i++) n = child(n, Character.toLowerCase(word.charAt(i)));
+                if (wordLength[n] == 0) words++;
+                wordLength[n] = word.length();
+            }
+
+            private int child(int parent, char c) {
+                long key = ((long) parent << 16 | c) + 1;
+                int mask = keys.length - 1;
+                for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                    if (keys[i] == key) return children[i];
+                    if (keys[i] == 0) {
+                        if (nodes == wordLength.length) wordLength = Arrays.copyOf(wordLength, nodes * 2);
+                        keys[i] = key;
+                        children[i] = nodes;
+                        if (++edges * 2 > keys.length) grow();
+                        return nodes++;
+                    }
+                }
+            }
+
+            private void grow() {
+                long[] oldKeys = keys;
+                int[] oldChildren = children;
+                keys = new long[oldKeys.length * 2];
+                children = new int[oldKeys.length * 2];
+                int mask = keys.length - 1;
+                for (int j = 0; j < oldKeys.length; j++) {
+                    if (oldKeys[j] == 0) continue;
+                    int i = mix(oldKeys[j]) & mask;
+                    while (keys[i] != 0) i = (i + 1) & mask;
+                    keys[i] = oldKeys[j];
+                    children[i] = oldChildren[j];
+                }
+            }
+
+            private static int mix(long key) {
+                long h = key * 0x9E3779B97F4A7C15L;
+                return (int) (h ^ h >>> 32);
+            }
+
+            DictionaryMatcher build() {
+                // counting sort of the edges by parent, then by character within each parent
+                int[] firstEdge = new int[nodes + 1];
+                for (long key : keys) if (key != 0) firstEdge[(int) ((key - 1) >>> 16) + 1]++;
+                for (int n = 0; n < nodes; n++) firstEdge[n + 1] += firstEdge[n];
+                int[] fill = Arrays.copyOf(firstEdge, nodes);
+                char[] edgeChar = new char[edges];
+                int[] edgeTarget = new int[edges];
+                for (int j = 0; j < keys.length; j++) {
+                    if (keys[j] == 0) continue;
+                    int e = fill[(int) ((keys[j] - 1) >>> 16)]++;
+                    edgeChar[e] = (char) (keys[j] - 1);
+                    edgeTarget[e] = children[j];
+                }
+                keys = null;
+                children = null;
+                for (int n = 0; n < nodes; n++) {
+                    // insertion sort: nodes below the root have only a handful of edges
+                    for (int e = firstEdge[n] + 1; e < firstEdge[n + 1]; e++) {
+                        char c = edgeChar[e];
+                        int t = edgeTarget[e];
+                        int k = e - 1;
+                        while (k >= firstEdge[n] && edgeChar[k] > c) {
+                            edgeChar[k + 1] = edgeChar[k];
+                            edgeTarget[k + 1] = edgeTarget[k];
+                            k--;
+                        }
+                        edgeChar[k + 1] = c;
+                        edgeTarget[k + 1] = t;
+                    }
+                }
+                return new DictionaryMatcher(firstEdge, edgeChar, edgeTarget, Arrays.copyOf(wordLength, nodes), words);
+            }
         }
     }
 }
@@ -0,0 +1,65 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.function.BiConsumer;
+
+/** In-memory code -> record storage behind the Engine. Reads must be safe without the caller holding a lock. */
+interface RecordStore {
+    UrlRecord get(String code);
+
+    // Same as get(code).longUrl.equals(longUrl), but lets a store compare without materializing the record.
+    boolean urlEquals(String code, String longUrl);
+
+    boolean putIfAbsent(String code, UrlRecord rec);
+
+    void put(String code, UrlRecord rec);
+
+    // Removes the mapping only if it still holds the record with this id.
+    boolean remove(String code, long id);
+
+    void remove(String code);
+
+    int size();
+
+    // Highest id ever stored (not lowered by deletes), so ids are never handed out twice.
+    long maxId();
+
+    void forEach(BiConsumer<String, UrlRecord> action);
+
+    // Smallest id in [from, to] whose own code (encodeBase62(id)) may hold a mapping, or Long.MAX_VALUE;
+    // lets a scan walk the store in id order. Never skips one that does, so callers confirm with get.
+    long nextId(long from, long to);
+
+    // Only the mappings whose code isn't encodeBase62 of their own id (hand-edited CSV rows).
+    default void forEachIrregular(BiConsumer<String, UrlRecord> action) {
+        forEach((code, rec) -> {
+            if (!code.equals(URLShortener.encodeBase62(rec.id))) action.accept(code, rec);
+        });
+    }
+
+    String kind();
+
+    // Persistent stores keep their own durable image and replace the binary snapshot.
+    default boolean persistent() {
+        return false;
+    }
+
+    // Makes every change applied so far durable (persistent stores only).
+    default void checkpoint() throws IOException {
+    }
+
+    default void close() throws IOException {
+    }
+
+    static RecordStore newStore(String kind, Path dir) throws IOException {
+        switch (kind) {
+            case "hash":
+                return new HashRecordStore();
+            case "compact":
+                return new CompactRecordStore();
+            case "mapped":
+                return new MappedRecordStore(dir);
+            default:
+                throw new IllegalArgumentException("Unknown store: " + kind + " (use hash, compact or mapped)");
+        }
+    }
+}
@@ -0,0 +1,10 @@
+// Outcome of a shorten: the code, and whether this call created it.
+class ShortenResult {
+    final String code;
+    final boolean created; // false when the URL was already shortened
+
+    ShortenResult(String code, boolean created) {
+        this.code = code;
+        this.created = created;
+    }
+}
@@ -0,0 +1,50 @@
+// Immutable: StudentDatabase hands its stored students out, and changes a student by replacing it.
+class Student {
+    private final long id; // primary key given by StudentDatabase (0 until stored); never reused
+    private final String name;
+    private final String hobbies;
+    private final double marks; // stored as percentage
+
+    // Constructor
+    public Student(String name, String hobbies, double marks) {
+        this(0, name, hobbies, marks);
+    }
+
+    Student(long id, String name, String hobbies, double marks) {
+        this.id = id;
+        this.name = name;
+        this.hobbies = hobbies;
+        this.marks = marks;
+    }
+
+    // Getters
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHobbies() {
+        return hobbies;
+    }
+
+    public double getMarks() {
+        return marks;
+    }
+
+    // Method to calculate GPA (just a mock formula for demo)
+    public double calculateGPA() {
+        return (marks / 10);
+    }
+
+    // Display student details
+    public void displayDetails() {
+        System.out.println("ID   : " + id);
+        System.out.println("Name : " + name);
+        System.out.println("Hobbies: " + hobbies);
+        System.out.println("Marks : " + marks + "%");
+        System.out.println("GPA  : " + String.format("%.2f", calculateGPA()));
+    }
+}
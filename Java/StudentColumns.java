@@ -0,0 +1,246 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Column store of students for cohort-wide statistics: marks in a double[], names and hobbies
+ * dictionary-encoded into int ids, and no object per student. Rows are appended and removed (the
+ * last row moves into the gap, so rows are in no particular order); StudentDatabase keeps one in
+ * step with its records, and bulk loads build one directly. Every query is a plain loop over the
+ * arrays, cut into chunks that run in parallel on the common fork-join pool.
+ * GPA is marks / 10, so GPA statistics are the marks statistics divided by 10.
+ * Not thread-safe; StudentDatabase guards it and hands queries a snapshot().
+ */
+class StudentColumns {
+    static final String[] BANDS = {"A (90-100)", "B (80-89)", "C (70-79)", "D (60-69)", "F (below 60)"};
+    // band of (int) (marks / 10), clamped to 0..10
+    private static final int[] BAND_OF_TENS = {4, 4, 4, 4, 4, 4, 3, 2, 1, 0, 0};
+    private static final int CHUNK = 1 << 16;
+    private static final int PERCENTILE_BUCKETS = 1 << 12;
+
+    private double[] marks = new double[16];
+    private int[] names = new int[16];
+    private int[] hobbies = new int[16];
+    private int rows;
+    // id -> string, and back
+    private final List<String> nameValues = new ArrayList<>();
+    private final Map<String, Integer> nameIds = new HashMap<>();
+    private final List<String> hobbyValues = new ArrayList<>();
+    private final Map<String, Integer> hobbyIds = new HashMap<>();
+
+    // Students sharing a hobby, for groupByHobby().
+    static final class HobbyGroup {
+        final String hobby;
+        final long count;
+        final double meanMarks;
+
+        HobbyGroup(String hobby, long count, double meanMarks) {
+            this.hobby = hobby;
+            this.count = count;
+            this.meanMarks = meanMarks;
+        }
+    }
+
+    void add(String name, String hobby, double mark) {
+        if (rows == marks.length) {
+            int cap = rows * 2;
+            marks = Arrays.copyOf(marks, cap);
+            names = Arrays.copyOf(names, cap);
+            hobbies = Arrays.copyOf(hobbies, cap);
+        }
+        marks[rows] = mark;
+        names[rows] = encode(name, nameValues, nameIds);
+        hobbies[rows] = encode(hobby, hobbyValues, hobbyIds);
+        rows++;
+    }
+
+    // Moves the last row into this one. Dictionary entries stay even when no row uses them any more.
+    void removeRow(int row) {
+        int last = --rows;
+        marks[row] = marks[last];
+        names[row] = names[last];
+        hobbies[row] = hobbies[last];
+    }
+
+    // A copy to query while this one keeps changing; it only answers queries (add() must not be called
+    // on it). May run while a write is in progress if the copy is then thrown away: it may be torn or throw.
+    StudentColumns snapshot() {
+        StudentColumns c = new StudentColumns();
+        int n = rows;
+        c.marks = Arrays.copyOf(marks, n);
+        c.names = Arrays.copyOf(names, n);
+        c.hobbies = Arrays.copyOf(hobbies, n);
+        c.rows = n;
+        c.nameValues.addAll(nameValues);
+        c.hobbyValues.addAll(hobbyValues);
+        return c;
+    }
+
+    int size() {
+        return rows;
+    }
+
+    double marksAt(int row) {
+        return marks[row];
+    }
+
+    String nameAt(int row) {
+        return nameValues.get(names[row]);
+    }
+
+    String hobbyAt(int row) {
+        return hobbyValues.get(hobbies[row]);
+    }
+
+    // NaN when empty.
+    double meanMarks() {
+        // Four running sums let the adds overlap instead of each waiting on the last.
+        double[] m = marks;
+        return chunked((from, to) -> {
+            double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            int i = from;
+            for (; i + 3 < to; i += 4) {
+                s0 += m[i];
+                s1 += m[i + 1];
+                s2 += m[i + 2];
+                s3 += m[i + 3];
+            }
+            for (; i < to; i++) s0 += m[i];
+            return s0 + s1 + s2 + s3;
+        }, Double::sum) / rows;
+    }
+
+    double meanGPA() {
+        return meanMarks() / 10;
+    }
+
+    double medianMarks() {
+        return percentileMarks(50);
+    }
+
+    // Nearest rank: the smallest mark that at least p% of students have or are below. NaN when empty.
+    // Exact, in three parallel passes and no full sort: find min and max, count marks into buckets
+    // between them to find the bucket holding that rank, then sort just that bucket's marks.
+    double percentileMarks(double p) {
+        if (rows == 0) return Double.NaN;
+        double[] m = marks;
+        double[] range = chunked((from, to) -> {
+            double min = m[from], max = m[from];
+            for (int i = from + 1; i < to; i++) {
+                if (m[i] < min) min = m[i];
+                if (m[i] > max) max = m[i];
+            }
+            return new double[] {min, max};
+        }, (x, y) -> new double[] {Math.min(x[0], y[0]), Math.max(x[1], y[1])});
+        double min = range[0];
+        double max = range[1];
+        if (min == max) return min;
+        double scale = PERCENTILE_BUCKETS / (max - min);
+        long[] counts = chunked((from, to) -> {
+            long[] c = new long[PERCENTILE_BUCKETS];
+            for (int i = from; i < to; i++) c[bucket(m[i], min, scale)]++;
+            return c;
+        }, StudentColumns::add);
+        long rank = Math.min(rows, Math.max(1, (long) Math.ceil(p / 100 * rows)));
+        int b = 0;
+        while (rank > counts[b]) rank -= counts[b++];
+        int target = b;
+        double[] inBucket = chunked((from, to) -> {
+            double[] v = new double[16];
+            int n = 0;
+            for (int i = from; i < to; i++) {
+                if (bucket(m[i], min, scale) == target) {
+                    if (n == v.length) v = Arrays.copyOf(v, n * 2);
+                    v[n++] = m[i];
+                }
+            }
+            return Arrays.copyOf(v, n);
+        }, (x, y) -> {
+            double[] both = Arrays.copyOf(x, x.length + y.length);
+            System.arraycopy(y, 0, both, x.length, y.length);
+            return both;
+        });
+        Arrays.sort(inBucket);
+        return inBucket[(int) rank - 1];
+    }
+
+    double percentileGPA(double p) {
+        return percentileMarks(p) / 10;
+    }
+
+    // Students per grade band, in BANDS order.
+    long[] gradeBands() {
+        double[] m = marks;
+        return chunked((from, to) -> {
+            long[] c = new long[BANDS.length];
+            for (int i = from; i < to; i++) {
+                int tens = (int) (m[i] / 10);
+                c[BAND_OF_TENS[Math.max(0, Math.min(10, tens))]]++;
+            }
+            return c;
+        }, StudentColumns::add);
+    }
+
+    // Count and mean marks per hobby, largest groups first.
+    List<HobbyGroup> groupByHobby() {
+        int groups = hobbyValues.size();
+        double[] m = marks;
+        int[] h = hobbies;
+        // [0, groups) are counts and [groups, 2 * groups) mark totals
+        double[] totals = chunked((from, to) -> {
+            double[] t = new double[2 * groups];
+            for (int i = from; i < to; i++) {
+                t[h[i]]++;
+                t[groups + h[i]] += m[i];
+            }
+            return t;
+        }, StudentColumns::add);
+        List<HobbyGroup> out = new ArrayList<>();
+        for (int g = 0; g < groups; g++) {
+            if (totals[g] > 0) out.add(new HobbyGroup(hobbyValues.get(g), (long) totals[g], totals[groups + g] / totals[g]));
+        }
+        out.sort((x, y) -> Long.compare(y.count, x.count));
+        return out;
+    }
+
+    private static int bucket(double mark, double min, double scale) {
+        return Math.min(PERCENTILE_BUCKETS - 1, (int) ((mark - min) * scale));
+    }
+
+    // Runs leaf on each CHUNK rows in parallel and merges the partial results.
+    private <T> T chunked(Chunk<T> leaf, BinaryOperator<T> merge) {
+        int chunks = Math.max(1, (rows + CHUNK - 1) / CHUNK);
+        int n = rows;
+        return IntStream.range(0, chunks).parallel()
+                .mapToObj(c -> leaf.apply(c * CHUNK, Math.min(n, (c + 1) * CHUNK)))
+                .reduce(merge).get();
+    }
+
+    private interface Chunk<T> {
+        T apply(int from, int to);
+    }
+
+    private static long[] add(long[] x, long[] y) {
+        for (int i = 0; i < x.length; i++) x[i] += y[i];
+        return x;
+    }
+
+    private static double[] add(double[] x, double[] y) {
+        for (int i = 0; i < x.length; i++) x[i] += y[i];
+        return x;
+    }
+
+    private static int encode(String value, List<String> values, Map<String, Integer> ids) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = values.size();
+            values.add(value);
+            ids.put(value, id);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,518 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+class StudentDatabase {
+    private static final Metrics.Timer ADD_TIMER = Metrics.timer("studentdb.add");
+    private static final Metrics.Timer UPDATE_TIMER = Metrics.timer("studentdb.update");
+    private static final Metrics.Timer REMOVE_TIMER = Metrics.timer("studentdb.remove");
+    private static final Metrics.Timer DISPLAY_TIMER = Metrics.timer("studentdb.displayAll");
+    private static final Metrics.Timer SEARCH_TIMER = Metrics.timer("studentdb.searchByName");
+    private static final Metrics.Timer MARKS_TIMER = Metrics.timer("studentdb.searchByMarks");
+    private static final Metrics.Timer TOP_TIMER = Metrics.timer("studentdb.top");
+    private static final Metrics.Timer RANK_TIMER = Metrics.timer("studentdb.rank", 64); // sub-microsecond: time 1 in 64
+    // optimistic reads that a concurrent write invalidated, so they ran again under the read lock
+    private static final Metrics.Counter READ_RETRIES = Metrics.counter("studentdb.readRetries");
+
+    // Index marks and cohort statistics are read in optimistic chunks (see readOptimistic) of this many.
+    private static final int READ_CHUNK = 256;
+
+    // Serializes writes, which hold it exclusively. Records and name lists are concurrent maps that
+    // reads use without it; the marks index and the columns are read through readOptimistic().
+    private final StampedLock lock = new StampedLock();
+    // ID -> student, in ID (= insertion) order. Stored students are never modified: an update
+    // replaces the record, so a reader holding one never sees it half-changed.
+    private final ConcurrentSkipListMap<Long, Student> students = new ConcurrentSkipListMap<>();
+    // case-folded name -> students with that name, in ID order. The lists are immutable: a write
+    // replaces the whole list, so a reader gets a consistent one without a lock.
+    private final ConcurrentHashMap<String, List<Student>> byName = new ConcurrentHashMap<>();
+    private final MarksIndex byMarks = new MarksIndex();
+    // A derived index for cohort statistics, not a second store: marks and dictionary-coded names and
+    // hobbies as columns, with each student's row and each row's student, both in primitive arrays.
+    private final StudentColumns columns = new StudentColumns();
+    private final RowIndex rowOf = new RowIndex();
+    private long[] idOfRow = new long[16];
+    private long lastId;
+    // Bumped by every write; statistics run over a copy of the columns taken at some version and
+    // keep using it until a write moves the version on.
+    private volatile long version;
+    private final AtomicReference<ColumnsSnapshot> statsSnapshot = new AtomicReference<>();
+
+    private static final class ColumnsSnapshot {
+        final long version;
+        final StudentColumns columns;
+
+        ColumnsSnapshot(long version, StudentColumns columns) {
+            this.version = version;
+            this.columns = columns;
+        }
+    }
+
+    public void addStudent(String name, String hobbies, double marks) {
+        long id = add(name, hobbies, marks);
+        System.out.println("Student added successfully! ID: " + id);
+    }
+
+    public void updateStudent(long id, String name, String hobbies, double marks) {
+        if (update(id, name, hobbies, marks)) {
+            System.out.println("Student updated successfully!");
+        } else {
+            System.out.println("No student with ID " + id + "!");
+        }
+    }
+
+    public void removeStudent(long id) {
+        if (remove(id)) {
+            System.out.println("Student removed successfully!");
+        } else {
+            System.out.println("No student with ID " + id + "!");
+        }
+    }
+
+    public void displayAllStudents() {
+        long t0 = DISPLAY_TIMER.start();
+        try {
+            // weakly consistent: each student as stored at some moment during the walk
+            List<Student> all = new ArrayList<>(students.values());
+            if (all.isEmpty()) {
+                System.out.println("⚠ No students in the database.");
+                return;
+            }
+            System.out.println("\n--- All Students ---");
+            for (Student s : all) {
+                s.displayDetails();
+                System.out.println("------------------------");
+            }
+        } finally {
+            DISPLAY_TIMER.stop(t0);
+        }
+    }
+
+    public void searchByName(String searchName) {
+        List<Student> found = studentsNamed(searchName);
+        if (found.isEmpty()) {
+            System.out.println("⚠ No student found with the name: " + searchName);
+            return;
+        }
+        for (Student s : found) s.displayDetails();
+    }
+
+    public void searchByMarks(double min, double max) {
+        List<Student> found = studentsWithMarks(min, max);
+        if (found.isEmpty()) {
+            System.out.println("⚠ No student has marks between " + min + "% and " + max + "%.");
+            return;
+        }
+        for (Student s : found) {
+            s.displayDetails();
+            System.out.println("------------------------");
+        }
+    }
+
+    public void searchByGPA(double min, double max) {
+        List<Student> found = studentsWithGPA(min, max);
+        if (found.isEmpty()) {
+            System.out.println("⚠ No student has a GPA between " + min + " and " + max + ".");
+            return;
+        }
+        for (Student s : found) {
+            s.displayDetails();
+            System.out.println("------------------------");
+        }
+    }
+
+    public void displayTopStudents(int k) {
+        List<Student> top = topStudents(k);
+        if (top.isEmpty()) {
+            System.out.println("⚠ No students in the database.");
+            return;
+        }
+        for (int i = 0; i < top.size(); i++) {
+            System.out.println("Rank: " + rankOfMarks(top.get(i).getMarks()));
+            top.get(i).displayDetails();
+            System.out.println("------------------------");
+        }
+    }
+
+    public void displayRank(String name) {
+        List<Student> found = studentsNamed(name);
+        if (found.isEmpty()) {
+            System.out.println("⚠ No student found with the name: " + name);
+            return;
+        }
+        for (Student s : found) {
+            System.out.println(s.getName() + " (ID " + s.getId() + "): rank " + rankOfMarks(s.getMarks()) + " of "
+                    + size() + " (" + s.getMarks() + "%)");
+        }
+    }
+
+    // Adds a student and returns its ID.
+    long add(String name, String hobbies, double marks) {
+        long t0 = ADD_TIMER.start();
+        long stamp = lock.writeLock();
+        try {
+            Student s = new Student(++lastId, name, hobbies, marks);
+            students.put(s.getId(), s);
+            index(s);
+            version++;
+            return s.getId();
+        } finally {
+            lock.unlockWrite(stamp);
+            ADD_TIMER.stop(t0);
+        }
+    }
+
+    // False when no student has this ID.
+    boolean update(long id, String name, String hobbies, double marks) {
+        long t0 = UPDATE_TIMER.start();
+        long stamp = lock.writeLock();
+        try {
+            Student old = students.get(id);
+            if (old == null) return false;
+            unindex(old);
+            Student s = new Student(id, name, hobbies, marks);
+            students.put(id, s);
+            index(s);
+            version++;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+            UPDATE_TIMER.stop(t0);
+        }
+    }
+
+    // False when no student has this ID.
+    boolean remove(long id) {
+        long t0 = REMOVE_TIMER.start();
+        long stamp = lock.writeLock();
+        try {
+            Student s = students.remove(id);
+            if (s == null) return false;
+            unindex(s);
+            version++;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+            REMOVE_TIMER.stop(t0);
+        }
+    }
+
+    // The student with this ID, or null.
+    Student get(long id) {
+        return students.get(id);
+    }
+
+    int size() {
+        return readOptimistic(() -> byMarks.size());
+    }
+
+    // Highest ID given out so far (IDs start at 1).
+    long lastId() {
+        return readOptimistic(() -> lastId);
+    }
+
+    // Students whose name equals this one ignoring case, in ID order.
+    List<Student> studentsNamed(String name) {
+        String key = fold(name);
+        long t0 = SEARCH_TIMER.start();
+        try {
+            List<Student> same = byName.get(key);
+            return same == null ? List.of() : same;
+        } finally {
+            SEARCH_TIMER.stop(t0);
+        }
+    }
+
+    // Students with min <= marks <= max, lowest first.
+    List<Student> studentsWithMarks(double min, double max) {
+        long t0 = MARKS_TIMER.start();
+        try {
+            return walkMarks(min, Long.MIN_VALUE, false, max, Integer.MAX_VALUE);
+        } finally {
+            MARKS_TIMER.stop(t0);
+        }
+    }
+
+    // GPA is marks / 10, so the marks index answers it: look up the marks range, widened by one ulp
+    // each way for rounding, and keep the students whose computed GPA is in range.
+    List<Student> studentsWithGPA(double min, double max) {
+        List<Student> out = studentsWithMarks(Math.nextDown(min * 10), Math.nextUp(max * 10));
+        out.removeIf(s -> s.calculateGPA() < min || s.calculateGPA() > max);
+        return out;
+    }
+
+    // The k students with the highest marks, highest first.
+    List<Student> topStudents(int k) {
+        long t0 = TOP_TIMER.start();
+        try {
+            return walkMarks(Double.NaN, Long.MAX_VALUE, true, Double.NEGATIVE_INFINITY, k);
+        } finally {
+            TOP_TIMER.stop(t0);
+        }
+    }
+
+    // 1 + the number of students with higher marks (equal marks share a rank).
+    int rankOfMarks(double marks) {
+        long t0 = RANK_TIMER.start();
+        try {
+            return readOptimistic(() -> byMarks.countAbove(marks) + 1);
+        } finally {
+            RANK_TIMER.stop(t0);
+        }
+    }
+
+    // Walks the marks index from (m, id) (see MarksIndex.walk) in optimistic reads of READ_CHUNK
+    // students, each resuming after the last student of the one before, so no read holds off writes
+    // for longer than one chunk. A student whose marks change between chunks is listed at most once,
+    // as it was when its chunk was read.
+    private List<Student> walkMarks(double m, long id, boolean descending, double bound, int limit) {
+        List<Student> out = new ArrayList<>();
+        Set<Long> seen = null;
+        while (out.size() < limit) {
+            int want = Math.min(READ_CHUNK, limit - out.size());
+            double fromMarks = m;
+            long fromId = id;
+            List<Student> chunk = readOptimistic(() -> {
+                List<Student> c = new ArrayList<>(want);
+                byMarks.walk(fromMarks, fromId, descending, bound, want, c);
+                return c;
+            });
+            if (seen == null && chunk.size() == want) seen = new HashSet<>();
+            for (Student s : chunk) {
+                if (seen == null || seen.add(s.getId())) out.add(s);
+            }
+            if (chunk.size() < want) break;
+            Student last = chunk.get(chunk.size() - 1);
+            m = last.getMarks();
+            id = last.getId();
+        }
+        return out;
+    }
+
+    // Runs a query over the columns of every student. The query gets a snapshot, copied under an
+    // optimistic read the first time after a write and shared by later calls, so it never holds
+    // off writes however long it runs.
+    <T> T statistics(Function<StudentColumns, T> query) {
+        ColumnsSnapshot snap = statsSnapshot.get();
+        if (snap == null || snap.version != version) {
+            ColumnsSnapshot fresh = readOptimistic(() -> new ColumnsSnapshot(version, columns.snapshot()));
+            snap = statsSnapshot.accumulateAndGet(fresh, (a, b) -> a != null && a.version > b.version ? a : b);
+        }
+        return query.apply(snap.columns);
+    }
+
+    public void displayStatistics() {
+        String report = statistics(StudentDatabase::cohortReport);
+        System.out.print(report == null ? "⚠ No students in the database.\n" : report);
+    }
+
+    // null when there are no students
+    private static String cohortReport(StudentColumns c) {
+        if (c.size() == 0) return null;
+        StringBuilder sb = new StringBuilder("\n--- Cohort Statistics (" + c.size() + " students) ---\n");
+        sb.append(String.format("Marks: mean %.2f%%, median %.2f%%, 90th percentile %.2f%%%n",
+                c.meanMarks(), c.medianMarks(), c.percentileMarks(90)));
+        sb.append(String.format("GPA  : mean %.2f, median %.2f, 90th percentile %.2f%n",
+                c.meanGPA(), c.percentileGPA(50), c.percentileGPA(90)));
+        long[] bands = c.gradeBands();
+        for (int b = 0; b < bands.length; b++) sb.append(StudentColumns.BANDS[b]).append(": ").append(bands[b]).append('\n');
+        sb.append("By hobby:\n");
+        for (StudentColumns.HobbyGroup g : c.groupByHobby()) {
+            sb.append(String.format("  %s: %d students, mean marks %.2f%%%n", g.hobby, g.count, g.meanMarks));
+        }
+        return sb.toString();
+    }
+
+    // Throws if the name and marks indexes or the columns disagree with the records (used after the stress test).
+    void checkIndexes() {
+        long stamp = lock.readLock();
+        try {
+            int named = 0;
+            for (List<Student> same : byName.values()) {
+                for (int i = 0; i < same.size(); i++) {
+                    Student s = same.get(i);
+                    if (students.get(s.getId()) != s) throw new IllegalStateException("name index holds stale student " + s.getId());
+                    if (i > 0 && same.get(i - 1).getId() >= s.getId()) throw new IllegalStateException("name index out of ID order");
+                }
+                named += same.size();
+            }
+            List<Student> byMarksOrder = new ArrayList<>();
+            byMarks.walk(Double.NEGATIVE_INFINITY, Long.MIN_VALUE, false, Double.POSITIVE_INFINITY, Integer.MAX_VALUE, byMarksOrder);
+            for (int i = 0; i < byMarksOrder.size(); i++) {
+                Student s = byMarksOrder.get(i);
+                if (students.get(s.getId()) != s) throw new IllegalStateException("marks index holds stale student " + s.getId());
+                if (i > 0 && byMarksOrder.get(i - 1).getMarks() > s.getMarks()) throw new IllegalStateException("marks index out of order");
+            }
+            if (named != students.size() || byMarksOrder.size() != students.size() || byMarks.size() != students.size()) {
+                throw new IllegalStateException("indexes hold " + named + " / " + byMarksOrder.size() + " students, records "
+                        + students.size());
+            }
+            if (columns.size() != students.size() || rowOf.size() != students.size()) {
+                throw new IllegalStateException("columns hold " + columns.size() + " rows, records " + students.size());
+            }
+            for (Student s : students.values()) {
+                int row = rowOf.get(s.getId());
+                if (row < 0 || idOfRow[row] != s.getId() || columns.marksAt(row) != s.getMarks() || !columns.nameAt(row).equals(s.getName())
+                        || !columns.hobbyAt(row).equals(s.getHobbies())) {
+                    throw new IllegalStateException("columns hold a stale row for student " + s.getId());
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private <T> T read(Supplier<T> query) {
+        long stamp = lock.readLock();
+        try {
+            return query.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // For queries that only read a few fields (a size, a bounded walk down the marks index): runs
+    // without taking the lock and keeps the result if no write happened meanwhile, otherwise runs
+    // again under the read lock. A query racing a write may read torn state and throw (an index out
+    // of bounds on a just-grown array); that result is thrown away the same way.
+    private <T> T readOptimistic(Supplier<T> query) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = query.get();
+                if (lock.validate(stamp)) return result;
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) throw e;
+            }
+            READ_RETRIES.increment();
+        }
+        return read(query);
+    }
+
+    private void index(Student s) {
+        String key = fold(s.getName());
+        List<Student> same = byName.getOrDefault(key, List.of());
+        // keep ID order: an updated student may rejoin behind newer ones
+        int pos = same.size();
+        while (pos > 0 && same.get(pos - 1).getId() > s.getId()) pos--;
+        Student[] next = new Student[same.size() + 1];
+        for (int i = 0; i < pos; i++) next[i] = same.get(i);
+        next[pos] = s;
+        for (int i = pos; i < same.size(); i++) next[i + 1] = same.get(i);
+        byName.put(key, List.of(next));
+        byMarks.add(s);
+        int row = columns.size();
+        if (row == idOfRow.length) idOfRow = Arrays.copyOf(idOfRow, row * 2);
+        columns.add(s.getName(), s.getHobbies(), s.getMarks());
+        idOfRow[row] = s.getId();
+        rowOf.put(s.getId(), row);
+    }
+
+    private void unindex(Student s) {
+        String key = fold(s.getName());
+        List<Student> same = byName.get(key);
+        if (same.size() == 1) {
+            byName.remove(key);
+        } else {
+            List<Student> rest = new ArrayList<>(same);
+            rest.remove(s);
+            byName.put(key, List.copyOf(rest));
+        }
+        byMarks.remove(s);
+        int row = rowOf.remove(s.getId());
+        int last = columns.size() - 1;
+        columns.removeRow(row);
+        if (row != last) {
+            idOfRow[row] = idOfRow[last];
+            rowOf.put(idOfRow[row], row);
+        }
+    }
+
+    /**
+     * Student ID -> column row, as an open-addressing table of longs and ints (IDs are positive, so 0
+     * marks a free slot): no boxed key or value per student. Linear probing; a removal shifts later
+     * entries of its probe run back so lookups never need tombstones.
+     */
+    private static final class RowIndex {
+        private long[] keys = new long[32];
+        private int[] rows = new int[32];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        // -1 when the ID has no row
+        int get(long id) {
+            int mask = keys.length - 1;
+            for (int i = slot(id, mask); keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == id) return rows[i];
+            }
+            return -1;
+        }
+
+        void put(long id, int row) {
+            if (2 * (size + 1) > keys.length) grow();
+            int mask = keys.length - 1;
+            int i = slot(id, mask);
+            while (keys[i] != 0 && keys[i] != id) i = (i + 1) & mask;
+            if (keys[i] == 0) size++;
+            keys[i] = id;
+            rows[i] = row;
+        }
+
+        // Returns the removed row, or -1 when the ID had none.
+        int remove(long id) {
+            int mask = keys.length - 1;
+            int i = slot(id, mask);
+            while (keys[i] != id) {
+                if (keys[i] == 0) return -1;
+                i = (i + 1) & mask;
+            }
+            int row = rows[i];
+            size--;
+            // move back any later entry of the run that the gap would cut off from its home slot
+            for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+                int home = slot(keys[j], mask);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    rows[i] = rows[j];
+                    i = j;
+                }
+            }
+            keys[i] = 0;
+            return row;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldRows = rows;
+            keys = new long[oldKeys.length * 2];
+            rows = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) put(oldKeys[i], oldRows[i]);
+            }
+        }
+
+        private static int slot(long id, int mask) {
+            return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+    }
+
+    // Case folding that matches equalsIgnoreCase: two names fold to the same string exactly when
+    // they are equal ignoring case.
+    static String fold(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        name.codePoints().forEach(cp -> sb.appendCodePoint(Character.toLowerCase(Character.toUpperCase(cp))));
+        return sb.toString();
+    }
+}
@@ -1,40 +1,175 @@
 import java.awt.Desktop;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.DateTimeException;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * URLShortener - Offline URL shortener (single-file)
+ * URLShortener - Offline URL shortener
+ *
+ * This file holds the CLI, the HTTP server, the CSV and snapshot formats and the self-checks. The
+ * engine and storage are in files of their own: Engine, Partition, the record stores (RecordStore,
+ * HashRecordStore, CompactRecordStore, MappedRecordStore), HotCache, ClickStats, CountingBloomFilter,
+ * UrlIndex, Journal and ExportScan. javac finds them (and Metrics.java) next to this file.
  *
  * Features:
  * - Generates short codes using base62 encoding of an incrementing ID
- * - Persists mappings in url_mappings.csv (code,longUrl,id,createdAt)
+ * - Persists mappings in a checksummed binary snapshot, url_mappings.bin; url_mappings.csv
+ *   (code,longUrl,id,createdAt) is imported when there is no snapshot and stays the export format
+ * - Appends every change to url_mappings.journal (group-committed fsync) and
+ *   compacts the journal into a fresh snapshot in the background
  * - Lookup by code or by long URL
- * - List, delete, export mappings
+ * - List, delete, export mappings; export streams a point-in-time view in constant memory without
+ *   blocking shortens and deletes, optionally gzipped and filtered by code prefix or createdAt range
  * - Open long URL in default browser (if supported)
+ * - Thread-safe Engine (shorten/resolve/delete) usable from many threads
+ * - HTTP server mode: GET /{code} redirects (302), POST /shorten creates a mapping,
+ *   GET /_stats reports mapping count and read-cache hit/miss/eviction counters
+ * - Click analytics: redirects are counted per code and minute, flushed in the background to
+ *   url_mappings.clicks with hourly rollups; GET /_top?n=10 lists the most-clicked codes of the last hour
+ * - Latency histograms (p50/p99/p99.9/max) for shorten, resolve, delete, journal commit, load, snapshot
+ *   and export, via GET /_metrics and JMX (cognizant.metrics:type=Timer,name=urlshortener.*); see Metrics.java
  *
  * How to run:
  * javac URLShortener.java
  * java URLShortener
+ * java URLShortener stress [threads] [urlsPerThread]   (concurrent engine self-check)
+ * java URLShortener serve [port]                       (redirect server on 127.0.0.1, default 8080)
+ * java URLShortener loadtest [connections] [seconds]   (keep-alive redirect load against a local server)
+ * java URLShortener loadbench [rows]                   (CSV load time: line reader vs parallel mapped loader)
+ * java URLShortener bulk [file|-] [out.csv]            (shorten one URL per line with a single commit)
+ * java URLShortener bulkbench [urls]                   (URLs/sec: one shorten() per URL vs one batch)
+ * java URLShortener rebalance <partitions>            (offline: rewrite the store into a new partition count)
+ * java URLShortener top [n]                            (most-clicked codes of the last hour, from url_mappings.clicks)
+ * java URLShortener export <file[.gz]> [prefix|-] [from|-] [to|-]
+ *                                                      (stream mappings to CSV, optionally gzipped and filtered by
+ *                                                       code prefix and createdAt; dates as yyyy-MM-dd[ HH:mm:ss])
+ * java URLShortener exportbench [rows]                 (export speed/memory while a writer shortens and deletes)
+ *
+ * Tuning (system properties):
+ * -Durlshortener.groupCommitMs=5     fsync window for journal appends (0 = fsync every change)
+ * -Durlshortener.compactAfter=10000  journal records before a background compaction
+ * -Durlshortener.store=hash          record store: hash (code-keyed map), compact (id-indexed arrays)
+ *                                    or mapped (memory-mapped url_mappings.idx/.dat, larger than heap)
+ * -Durlshortener.cacheSize=N         hot-code read cache entries (default 100000 for mapped, else 0 = off)
+ * -Durlshortener.cacheTtlSeconds=0   cache entry expiry (0 = never)
+ * -Durlshortener.clicks=true         count redirects per code
+ * -Durlshortener.bloomFpp=0.01       false-positive rate of the code/URL membership filters (0 = off)
+ * -Durlshortener.reclaimAfterMb=64   compact and mapped stores: MB of removed or overwritten records to
+ *                                    allow before reclaiming them (once they also outweigh the live ones)
+ * -Durlshortener.partitions=1        store partitions, each with its own snapshot, journal and locks;
+ *                                    an existing store is converted with: java URLShortener rebalance <n>
  */
 public class URLShortener {
-    private static final String DATA_FILE = "url_mappings.csv";
+    static final String DATA_FILE = "url_mappings.csv";
+    static final String SNAPSHOT_FILE = "url_mappings.bin";
     private static final String CSV_HEADER = "code,longUrl,id,createdAt";
     private static final String BASE62 = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
-    private static final DateTimeFormatter DTF = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    static final DateTimeFormatter DTF = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    static final String JOURNAL_FILE = "url_mappings.journal";
+    static final String COMPACTING_FILE = "url_mappings.journal.compacting";
+    private static final long GROUP_COMMIT_MS = Long.getLong("urlshortener.groupCommitMs", 5);
+    static final int COMPACT_AFTER = Integer.getInteger("urlshortener.compactAfter", 10_000);
+    static final String STORE = System.getProperty("urlshortener.store", "hash");
+    static final int CACHE_SIZE = Integer.getInteger("urlshortener.cacheSize", STORE.equals("mapped") ? 100_000 : 0);
+    static final long CACHE_TTL_SECONDS = Long.getLong("urlshortener.cacheTtlSeconds", 0);
+    static final String CLICKS_FILE = "url_mappings.clicks";
+    static final boolean CLICKS = Boolean.parseBoolean(System.getProperty("urlshortener.clicks", "true"));
+    static final String LAYOUT_FILE = "url_mappings.partitions";
+    private static final int EXPORT_CHUNK = 1 << 20;
+    static final int PARTITIONS = Integer.getInteger("urlshortener.partitions", 1);
+    static final double BLOOM_FPP = Double.parseDouble(System.getProperty("urlshortener.bloomFpp", "0.01"));
+    static final long RECLAIM_AFTER_BYTES = Long.getLong("urlshortener.reclaimAfterMb", 64) << 20;
+
+    // latency histograms (see Metrics), also exposed as JMX beans cognizant.metrics:type=Timer,name=urlshortener.*
+    private static final Metrics.Timer PARSE_CSV_TIMER = Metrics.timer("urlshortener.parseCsv");
+    private static final Metrics.Timer READ_SNAPSHOT_TIMER = Metrics.timer("urlshortener.readSnapshot");
+    private static final Metrics.Timer SAVE_SNAPSHOT_TIMER = Metrics.timer("urlshortener.saveSnapshot");
+    private static final Metrics.Timer SAVE_CSV_TIMER = Metrics.timer("urlshortener.saveCsv");
+    private static final Metrics.Timer EXPORT_TIMER = Metrics.timer("urlshortener.export");
+
+    private final Engine engine;
 
-    // code -> (longUrl, id, createdAt)
-    private final Map<String, UrlRecord> map = new LinkedHashMap<>();
-    private long nextId = 1;
+    private URLShortener(Engine engine) {
+        this.engine = engine;
+    }
 
-    public static void main(String[] args) {
-        URLShortener app = new URLShortener();
-        app.loadFromFile();
-        app.runCLI();
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("stress")) {
+            runStress(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("serve")) {
+            runServer(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("loadtest")) {
+            runLoadTest(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("loadbench")) {
+            runLoadBench(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("bulk")) {
+            runBulk(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("bulkbench")) {
+            runBulkBench(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("rebalance")) {
+            runRebalance(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("export")) {
+            runExport(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("exportbench")) {
+            runExportBench(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("top")) {
+            runTop(args);
+            return;
+        }
+        URLShortener app = new URLShortener(new Engine(Paths.get(""), GROUP_COMMIT_MS));
+        try {
+            app.engine.load();
+        } catch (IOException e) {
+            System.out.println("Failed to load mappings: " + e.getMessage());
+            app.engine.close();
+            return;
+        }
+        try {
+            app.runCLI();
+        } finally {
+            app.engine.close();
+        }
     }
 
     private void runCLI() {
@@ -92,31 +227,27 @@ public class URLShortener {
     }
 
     // ===== UI Handlers =====
-    private void shortenUrlUI(Scanner sc) {
+    private void shortenUrlUI(Scanner sc) throws IOException {
         System.out.print("Enter the long URL: ");
         String longUrl = sc.nextLine().trim();
         if (!isValidURL(longUrl)) {
             System.out.println("Invalid URL format. Include protocol (http/https).");
             return;
         }
+        ShortenResult result = engine.shorten(longUrl);
         // if already exists return code
-        String existing = findCodeByLongUrl(longUrl);
-        if (existing != null) {
-            System.out.println("This URL is already shortened: " + existing);
+        if (!result.created) {
+            System.out.println("This URL is already shortened: " + result.code);
             return;
         }
-        String code = generateNextCode();
-        UrlRecord rec = new UrlRecord(longUrl, nextId - 1, LocalDateTime.now());
-        map.put(code, rec);
-        saveToFile();
         System.out.println("Shortened successfully.");
-        System.out.println("Code: " + code);
+        System.out.println("Code: " + result.code);
     }
 
     private void lookupByCodeUI(Scanner sc) {
         System.out.print("Enter the short code: ");
         String code = sc.nextLine().trim();
-        UrlRecord rec = map.get(code);
+        UrlRecord rec = engine.resolve(code);
         if (rec == null) {
             System.out.println("No mapping found for code: " + code);
         } else {
@@ -129,7 +260,7 @@ public class URLShortener {
     private void lookupByLongUrlUI(Scanner sc) {
         System.out.print("Enter the long URL to find: ");
         String longUrl = sc.nextLine().trim();
-        String code = findCodeByLongUrl(longUrl);
+        String code = engine.findCodeByLongUrl(longUrl);
         if (code == null) {
             System.out.println("No short code found for this URL.");
         } else {
@@ -138,13 +269,15 @@ public class URLShortener {
     }
 
     private void listAll() {
-        if (map.isEmpty()) {
+        Iterator<Map.Entry<String, UrlRecord>> records = engine.recordsInIdOrder();
+        if (!records.hasNext()) {
             System.out.println("No mappings stored yet.");
             return;
         }
         System.out.printf("%-8s  %-40s  %-6s  %s%n", "CODE", "LONG URL", "ID", "CREATED AT");
         System.out.println("----------------------------------------------------------------------------------------");
-        for (Map.Entry<String, UrlRecord> e : map.entrySet()) {
+        while (records.hasNext()) {
+            Map.Entry<String, UrlRecord> e = records.next();
             String code = e.getKey();
             UrlRecord r = e.getValue();
             String url = r.longUrl;
@@ -153,11 +286,10 @@ public class URLShortener {
         }
     }
 
-    private void deleteUI(Scanner sc) {
+    private void deleteUI(Scanner sc) throws IOException {
         System.out.print("Enter the short code to delete: ");
         String code = sc.nextLine().trim();
-        if (map.remove(code) != null) {
-            saveToFile();
+        if (engine.delete(code)) {
             System.out.println("Deleted mapping for code: " + code);
         } else {
             System.out.println("No mapping found for code: " + code);
@@ -165,25 +297,46 @@ public class URLShortener {
     }
 
     private void exportUI(Scanner sc) {
-        System.out.print("Enter export filename (e.g. export.csv): ");
+        System.out.print("Enter export filename (e.g. export.csv, export.csv.gz): ");
         String filename = sc.nextLine().trim();
         if (filename.isEmpty()) filename = "export.csv";
+        System.out.print("Only codes starting with (blank = all): ");
+        String prefix = sc.nextLine().trim();
+        LocalDateTime from, to;
         try {
-            exportToCsv(filename);
-            System.out.println("Exported to " + filename);
+            System.out.print("Created from (yyyy-MM-dd [HH:mm:ss], blank = any): ");
+            from = parseExportTime(sc.nextLine(), false);
+            System.out.print("Created to (yyyy-MM-dd [HH:mm:ss], blank = any): ");
+            to = parseExportTime(sc.nextLine(), true);
+        } catch (DateTimeException e) {
+            System.out.println("Invalid date: " + e.getMessage());
+            return;
+        }
+        try {
+            long rows = exportToCsv(engine, Paths.get(filename), prefix.isEmpty() ? null : prefix, from, to);
+            System.out.println("Exported " + rows + " mappings to " + filename);
         } catch (IOException e) {
             System.out.println("Failed to export: " + e.getMessage());
         }
     }
 
+    // Blank or "-" = no bound; a bare date means the start (or, for an upper bound, the end) of that day.
+    private static LocalDateTime parseExportTime(String s, boolean upper) {
+        s = s.trim();
+        if (s.isEmpty() || s.equals("-")) return null;
+        if (s.length() == 10) s += upper ? " 23:59:59" : " 00:00:00";
+        return LocalDateTime.parse(s, DTF);
+    }
+
     private void openUrlUI(Scanner sc) {
         System.out.print("Enter the short code to open: ");
         String code = sc.nextLine().trim();
-        UrlRecord rec = map.get(code);
+        UrlRecord rec = engine.resolve(code);
         if (rec == null) {
             System.out.println("No mapping found for code: " + code);
             return;
         }
+        engine.recordClick(code);
         try {
             openInBrowser(rec.longUrl);
             System.out.println("Attempted to open URL in default browser.");
@@ -193,25 +346,7 @@ public class URLShortener {
     }
 
     // ===== Core Logic =====
-    private String generateNextCode() {
-        long id = nextId++;
-        String code = encodeBase62(id);
-        // safety check (shouldn't happen)
-        while (map.containsKey(code)) {
-            id = nextId++;
-            code = encodeBase62(id);
-        }
-        return code;
-    }
-
-    private String findCodeByLongUrl(String longUrl) {
-        for (Map.Entry<String, UrlRecord> e : map.entrySet()) {
-            if (e.getValue().longUrl.equals(longUrl)) return e.getKey();
-        }
-        return null;
-    }
-
-    private static String encodeBase62(long num) {
+    static String encodeBase62(long num) {
         if (num == 0) return "0";
         StringBuilder sb = new StringBuilder();
         while (num > 0) {
@@ -222,7 +357,24 @@ public class URLShortener {
         return sb.reverse().toString();
     }
 
-    private boolean isValidURL(String url) {
+    // Inverse of encodeBase62 for canonical codes only (no leading zeros); -1 for anything else.
+    static long decodeBase62(String code) {
+        int n = code.length();
+        if (n == 0 || n > 10 || (n > 1 && code.charAt(0) == '0')) return -1;
+        long num = 0;
+        for (int i = 0; i < n; i++) {
+            char c = code.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') digit = c - '0';
+            else if (c >= 'A' && c <= 'Z') digit = c - 'A' + 10;
+            else if (c >= 'a' && c <= 'z') digit = c - 'a' + 36;
+            else return -1;
+            num = num * 62 + digit;
+        }
+        return num;
+    }
+
+    static boolean isValidURL(String url) {
         try {
             URI u = new URI(url);
             String scheme = u.getScheme();
@@ -239,18 +391,43 @@ public class URLShortener {
     }
 
     // ===== Persistence (CSV) =====
-    private void loadFromFile() {
-        Path p = Paths.get(DATA_FILE);
-        if (!Files.exists(p)) {
-            System.out.println("No data file found — starting fresh.");
-            return;
+    // Writes a full snapshot to a temp file, fsyncs it, then atomically replaces the target file.
+    static boolean saveToFile(Path p, List<Map.Entry<String, UrlRecord>> snapshot) {
+        long t0 = SAVE_CSV_TIMER.start();
+        try {
+            Path tmp = p.resolveSibling(p.getFileName() + ".tmp");
+            try {
+                try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                     BufferedWriter bw = new BufferedWriter(Channels.newWriter(ch, StandardCharsets.UTF_8))) {
+                    bw.write(CSV_HEADER);
+                    bw.newLine();
+                    for (Map.Entry<String, UrlRecord> e : snapshot) {
+                        UrlRecord r = e.getValue();
+                        bw.write(String.join(",", e.getKey(), csvField(r.longUrl), String.valueOf(r.id), r.createdAt.format(DTF)));
+                        bw.newLine();
+                    }
+                    bw.flush();
+                    ch.force(true);
+                }
+                Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            } catch (IOException ex) {
+                System.out.println("Failed to save data: " + ex.getMessage());
+                return false;
+            }
+        } finally {
+            SAVE_CSV_TIMER.stop(t0);
         }
+    }
+
+    // Reads code,longUrl,id,createdAt rows into the action; returns the highest id seen.
+    static long readCsv(Path p, BiConsumer<String, UrlRecord> action) throws IOException {
+        long maxId = 0;
         try (BufferedReader br = Files.newBufferedReader(p)) {
             String header = br.readLine(); // skip header
-            if (header == null) return;
             String line;
-            long maxId = 0;
-            while ((line = br.readLine()) != null) {
+            while (header != null && (line = br.readLine()) != null) {
                 // CSV format: code,longUrl,id,createdAt
                 // longUrl may contain commas - we protect by using simple escaping:
                 // We assume longUrl doesn't contain newline and quotes; for robust use, use a proper CSV library.
@@ -260,59 +437,994 @@ public class URLShortener {
                 String longUrl = parts[1];
                 long id = Long.parseLong(parts[2]);
                 LocalDateTime createdAt = LocalDateTime.parse(parts[3], DTF);
-                map.put(code, new UrlRecord(longUrl, id, createdAt));
+                action.accept(code, new UrlRecord(longUrl, id, createdAt));
                 if (id > maxId) maxId = id;
             }
-            nextId = maxId + 1;
-            System.out.println("Loaded " + map.size() + " mappings. Next id = " + nextId);
-        } catch (IOException e) {
-            System.out.println("Failed to load data: " + e.getMessage());
         }
+        return maxId;
     }
 
-    private void saveToFile() {
-        Path p = Paths.get(DATA_FILE);
-        try (BufferedWriter bw = Files.newBufferedWriter(p)) {
-            bw.write(CSV_HEADER);
-            bw.newLine();
-            for (Map.Entry<String, UrlRecord> e : map.entrySet()) {
-                String code = e.getKey();
-                UrlRecord r = e.getValue();
-                // write as CSV with simple escaping for commas by surrounding longUrl with quotes if needed
-                String longUrl = r.longUrl;
-                if (longUrl.contains(",") || longUrl.contains("\"")) {
-                    longUrl = longUrl.replace("\"", "\"\""); // escape quotes
-                    longUrl = "\"" + longUrl + "\"";
+    // Streams the mappings matching the filters to target, in id order, from a point-in-time scan: shortens
+    // and deletes keep running and memory stays flat however large the store is. Rows are encoded into
+    // ~1 MB chunks written straight to the file channel (gzip when the name ends in .gz), then the file
+    // is fsynced and moved into place. A null prefix/from/to means no filter; from and to are inclusive.
+    // Returns the number of rows written.
+    static long exportToCsv(Engine engine, Path target, String prefix, LocalDateTime from, LocalDateTime to) throws IOException {
+        return exportToCsv(engine.scan(), target, prefix, from, to);
+    }
+
+    // Same, from a scan the caller opened (which fixes the point in time); closes the scan.
+    static long exportToCsv(ExportScan scan, Path target, String prefix, LocalDateTime from, LocalDateTime to) throws IOException {
+        long t0 = EXPORT_TIMER.start();
+        try {
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (scan;
+                 FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream out = Channels.newOutputStream(ch);
+                if (target.getFileName().toString().endsWith(".gz")) out = new GZIPOutputStream(out, 1 << 16);
+                String nl = System.lineSeparator();
+                StringBuilder chunk = new StringBuilder(EXPORT_CHUNK + 4096);
+                chunk.append(CSV_HEADER).append(nl);
+                long rows = 0;
+                while (scan.hasNext()) {
+                    Map.Entry<String, UrlRecord> e = scan.next();
+                    String code = e.getKey();
+                    UrlRecord r = e.getValue();
+                    if (prefix != null && !code.startsWith(prefix)) continue;
+                    if (from != null && r.createdAt.isBefore(from) || to != null && r.createdAt.isAfter(to)) continue;
+                    chunk.append(code).append(',').append(csvField(r.longUrl)).append(',').append(r.id).append(',')
+                            .append(r.createdAt.format(DTF)).append(nl);
+                    rows++;
+                    if (chunk.length() >= EXPORT_CHUNK) {
+                        out.write(chunk.toString().getBytes(StandardCharsets.UTF_8));
+                        chunk.setLength(0);
+                    }
                 }
-                bw.write(String.join(",", code, longUrl, String.valueOf(r.id), r.createdAt.format(DTF)));
-                bw.newLine();
+                out.write(chunk.toString().getBytes(StandardCharsets.UTF_8));
+                if (out instanceof GZIPOutputStream) ((GZIPOutputStream) out).finish();
+                ch.force(true);
+                out.close();
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return rows;
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tmp);
+                // the scan spills to temp files behind the Iterator interface
+                if (e instanceof UncheckedIOException) throw ((UncheckedIOException) e).getCause();
+                throw e;
             }
-        } catch (IOException ex) {
-            System.out.println("Failed to save data: " + ex.getMessage());
+        } finally {
+            EXPORT_TIMER.stop(t0);
         }
     }
 
-    private void exportToCsv(String filename) throws IOException {
-        Path p = Paths.get(filename);
-        try (BufferedWriter bw = Files.newBufferedWriter(p)) {
+    // ===== Binary snapshot =====
+    // url_mappings.bin (big-endian):
+    //   header  : magic "USNP", version, flags (bit 0 = records carry their URL hash), record count,
+    //             maxId, block count
+    //   blocks  : up to SNAPSHOT_BLOCK records each; a record is id, createdAt (epoch seconds),
+    //             [UrlIndex.hash(longUrl)], code length + bytes (length 0 = encodeBase62(id)),
+    //             URL length + UTF-8 bytes
+    //   table   : per block its file offset, record count and CRC32C
+    //   trailer : table offset, CRC32C of header + table, magic
+    // The block table lets a load map and decode blocks on all cores, and the stored URL hash lets it
+    // rebuild the reverse index without rehashing every URL.
+    private static final int SNAPSHOT_MAGIC = 0x55534E50;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HASHED = 1;
+    private static final int SNAPSHOT_HEADER = 32;
+    private static final int SNAPSHOT_BLOCK = 1 << 16;
+
+    // Receives decoded snapshot records; called from several loader threads at once.
+    interface SnapshotSink {
+        void accept(String code, UrlRecord rec, long urlHash);
+    }
+
+    // Writes the snapshot to a temp file, fsyncs it, then atomically replaces the target file.
+    static boolean saveSnapshot(Path p, List<Map.Entry<String, UrlRecord>> records, long maxId) {
+        long t0 = SAVE_SNAPSHOT_TIMER.start();
+        try {
+            Path tmp = p.resolveSibling(p.getFileName() + ".tmp");
+            try {
+                try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    int blocks = (records.size() + SNAPSHOT_BLOCK - 1) / SNAPSHOT_BLOCK;
+                    ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER);
+                    header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(SNAPSHOT_HASHED)
+                            .putLong(records.size()).putLong(maxId).putInt(blocks).flip();
+                    writeFully(ch, header);
+                    ByteBuffer table = ByteBuffer.allocate(blocks * 16);
+                    ByteArrayOutputStream block = new ByteArrayOutputStream(1 << 20);
+                    DataOutputStream out = new DataOutputStream(block);
+                    CRC32C crc = new CRC32C();
+                    for (int b = 0; b < blocks; b++) {
+                        block.reset();
+                        int from = b * SNAPSHOT_BLOCK, to = Math.min(records.size(), from + SNAPSHOT_BLOCK);
+                        for (Map.Entry<String, UrlRecord> e : records.subList(from, to)) {
+                            UrlRecord r = e.getValue();
+                            out.writeLong(r.id);
+                            out.writeLong(r.createdAt.toEpochSecond(ZoneOffset.UTC));
+                            out.writeLong(UrlIndex.hash(r.longUrl));
+                            if (e.getKey().equals(encodeBase62(r.id))) {
+                                out.writeShort(0);
+                            } else {
+                                byte[] code = e.getKey().getBytes(StandardCharsets.UTF_8);
+                                out.writeShort(code.length);
+                                out.write(code);
+                            }
+                            byte[] url = r.longUrl.getBytes(StandardCharsets.UTF_8);
+                            out.writeInt(url.length);
+                            out.write(url);
+                        }
+                        crc.reset();
+                        crc.update(block.toByteArray());
+                        table.putLong(ch.position()).putInt(to - from).putInt((int) crc.getValue());
+                        writeFully(ch, ByteBuffer.wrap(block.toByteArray()));
+                    }
+                    long tableOffset = ch.position();
+                    table.flip();
+                    crc.reset();
+                    crc.update(header.rewind());
+                    crc.update(table.duplicate());
+                    writeFully(ch, table);
+                    ByteBuffer trailer = ByteBuffer.allocate(16);
+                    trailer.putLong(tableOffset).putInt((int) crc.getValue()).putInt(SNAPSHOT_MAGIC).flip();
+                    writeFully(ch, trailer);
+                    ch.force(true);
+                }
+                Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            } catch (IOException ex) {
+                System.out.println("Failed to save snapshot: " + ex.getMessage());
+                return false;
+            }
+        } finally {
+            SAVE_SNAPSHOT_TIMER.stop(t0);
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    // Checks the header/table checksum, then maps the blocks and decodes them on all cores. Every block's
+    // checksum is verified before any record reaches the sink, so a damaged file is rejected whole.
+    // Returns the snapshot's maxId.
+    static long readSnapshot(Path p, SnapshotSink sink) throws IOException {
+        long t0 = READ_SNAPSHOT_TIMER.start();
+        try {
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                long size = ch.size();
+                if (size < SNAPSHOT_HEADER + 16) throw new IOException("truncated snapshot");
+                ByteBuffer trailer = ByteBuffer.allocate(16);
+                ch.read(trailer, size - 16);
+                trailer.flip();
+                long tableOffset = trailer.getLong();
+                int expectedCrc = trailer.getInt();
+                if (trailer.getInt() != SNAPSHOT_MAGIC) throw new IOException("missing snapshot trailer");
+                ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER);
+                ch.read(header, 0);
+                header.flip();
+                if (header.getInt() != SNAPSHOT_MAGIC) throw new IOException("not a URLShortener snapshot");
+                int version = header.getInt();
+                if (version != SNAPSHOT_VERSION) throw new IOException("unsupported snapshot version " + version);
+                boolean hashed = (header.getInt() & SNAPSHOT_HASHED) != 0;
+                long count = header.getLong();
+                long maxId = header.getLong();
+                int blocks = header.getInt();
+                if (tableOffset < SNAPSHOT_HEADER || tableOffset + blocks * 16L != size - 16) throw new IOException("corrupt block table");
+                ByteBuffer table = ByteBuffer.allocate(blocks * 16);
+                ch.read(table, tableOffset);
+                table.flip();
+                CRC32C crc = new CRC32C();
+                crc.update(header.rewind());
+                crc.update(table.duplicate());
+                if ((int) crc.getValue() != expectedCrc) throw new IOException("header checksum mismatch");
+
+                long[] offsets = new long[blocks + 1];
+                int[] counts = new int[blocks];
+                int[] crcs = new int[blocks];
+                long total = 0;
+                for (int b = 0; b < blocks; b++) {
+                    offsets[b] = table.getLong();
+                    counts[b] = table.getInt();
+                    crcs[b] = table.getInt();
+                    total += counts[b];
+                }
+                offsets[blocks] = tableOffset;
+                if (total != count) throw new IOException("record count mismatch");
+
+                int threads = Runtime.getRuntime().availableProcessors();
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                try {
+                    List<Future<MappedByteBuffer>> verified = new ArrayList<>();
+                    for (int b = 0; b < blocks; b++) {
+                        int block = b;
+                        verified.add(pool.submit(() -> {
+                            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, offsets[block], offsets[block + 1] - offsets[block]);
+                            CRC32C c = new CRC32C();
+                            c.update(buf.duplicate());
+                            if ((int) c.getValue() != crcs[block]) throw new IOException("checksum mismatch in block " + block);
+                            return buf;
+                        }));
+                    }
+                    List<MappedByteBuffer> mapped = new ArrayList<>(blocks);
+                    for (Future<MappedByteBuffer> f : verified) mapped.add(f.get());
+                    List<Future<?>> decoded = new ArrayList<>();
+                    for (int b = 0; b < blocks; b++) {
+                        int block = b;
+                        decoded.add(pool.submit(() -> {
+                            decodeSnapshotBlock(mapped.get(block), counts[block], hashed, sink);
+                            return null;
+                        }));
+                    }
+                    for (Future<?> f : decoded) f.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted loading " + p);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw new IOException(cause instanceof IOException ? cause.getMessage() : "Failed to decode " + p + ": " + cause, cause);
+                } finally {
+                    pool.shutdown();
+                }
+                return maxId;
+            }
+        } finally {
+            READ_SNAPSHOT_TIMER.stop(t0);
+        }
+    }
+
+    private static void decodeSnapshotBlock(ByteBuffer buf, int count, boolean hashed, SnapshotSink sink) {
+        byte[] scratch = new byte[256];
+        for (int i = 0; i < count; i++) {
+            long id = buf.getLong();
+            LocalDateTime createdAt = LocalDateTime.ofEpochSecond(buf.getLong(), 0, ZoneOffset.UTC);
+            long urlHash = hashed ? buf.getLong() : 0;
+            int codeLen = buf.getShort() & 0xFFFF;
+            String code;
+            if (codeLen == 0) {
+                code = encodeBase62(id);
+            } else {
+                buf.get(scratch, 0, codeLen);
+                code = new String(scratch, 0, codeLen, StandardCharsets.UTF_8);
+            }
+            int urlLen = buf.getInt();
+            if (urlLen > scratch.length) scratch = new byte[Math.max(urlLen, scratch.length * 2)];
+            buf.get(scratch, 0, urlLen);
+            String longUrl = new String(scratch, 0, urlLen, StandardCharsets.UTF_8);
+            sink.accept(code, new UrlRecord(longUrl, id, createdAt), hashed ? urlHash : UrlIndex.hash(longUrl));
+        }
+    }
+
+    // ===== Parallel CSV loader =====
+    // Memory-maps the CSV, cuts it into chunks at line boundaries and parses the chunks on all cores
+    // straight from the mapped bytes: no line Strings, no split arrays and no formatter, only the
+    // code/URL Strings and the record itself per row. Rows go into the (thread-safe) store as they
+    // are parsed. Returns the highest id seen; malformed rows are skipped.
+    static long loadCsvParallel(Path p, RecordStore store) throws IOException {
+        long t0 = PARSE_CSV_TIMER.start();
+        try {
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                long size = ch.size();
+                long start = lineEnd(ch, 0); // skip header
+                if (start >= size) return 0;
+                int threads = Runtime.getRuntime().availableProcessors();
+                // enough chunks to balance the cores, each small enough for one mapping
+                long chunks = Math.max(threads * 4L, (size >>> 26) + 1);
+                List<long[]> ranges = new ArrayList<>();
+                for (long i = 1; i <= chunks && start < size; i++) {
+                    long end = i == chunks ? size : Math.max(start, lineEnd(ch, size * i / chunks));
+                    if (end > start) ranges.add(new long[] {start, end});
+                    start = end;
+                }
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                try {
+                    List<Future<Long>> results = new ArrayList<>();
+                    for (long[] r : ranges) {
+                        results.add(pool.submit(() -> new CsvChunkParser(ch.map(FileChannel.MapMode.READ_ONLY, r[0], r[1] - r[0])).parse(store)));
+                    }
+                    long maxId = 0;
+                    for (Future<Long> f : results) maxId = Math.max(maxId, f.get());
+                    return maxId;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted loading " + p);
+                } catch (ExecutionException e) {
+                    throw new IOException("Failed to parse " + p + ": " + e.getCause(), e.getCause());
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        } finally {
+            PARSE_CSV_TIMER.stop(t0);
+        }
+    }
+
+    // Position just after the first '\n' at or after pos (or the file size).
+    private static long lineEnd(FileChannel ch, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long size = ch.size();
+        while (pos < size) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') return pos + i + 1;
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    private static class CsvChunkParser {
+        private final MappedByteBuffer buf;
+        private final int limit;
+        private byte[] scratch = new byte[256];
+        private int pos;
+
+        CsvChunkParser(MappedByteBuffer buf) {
+            this.buf = buf;
+            this.limit = buf.limit();
+        }
+
+        long parse(RecordStore store) {
+            long maxId = 0;
+            while (pos < limit) {
+                int lineStart = pos;
+                if (!row(store)) {
+                    // malformed row: resume after its newline (unless the failing read already consumed it)
+                    if (pos == lineStart || buf.get(pos - 1) != '\n') skipLine();
+                    continue;
+                }
+                if (lastId > maxId) maxId = lastId;
+            }
+            return maxId;
+        }
+
+        private long lastId;
+
+        // Parses one row into the store; false (with pos somewhere inside the row) if it is malformed.
+        private boolean row(RecordStore store) {
+            // CSV format: code,longUrl,id,createdAt
+            String code = field(false);
+            if (code == null) return false;
+            String longUrl = field(true);
+            if (longUrl == null) return false;
+            long id = number();
+            if (id < 0) return false;
+            LocalDateTime createdAt;
+            try {
+                createdAt = timestamp();
+            } catch (DateTimeException e) {
+                return false;
+            }
+            if (createdAt == null) return false;
+            store.put(code, new UrlRecord(longUrl, id, createdAt));
+            lastId = id;
+            return true;
+        }
+
+        // Reads one comma-terminated field; URLs may be quoted with "" escapes. Null if the line ended.
+        private String field(boolean utf8) {
+            int len = 0;
+            boolean quoted = pos < limit && buf.get(pos) == '"';
+            if (quoted) pos++;
+            while (pos < limit) {
+                byte b = buf.get(pos++);
+                if (quoted && b == '"') {
+                    if (pos < limit && buf.get(pos) == '"') {
+                        pos++;
+                    } else {
+                        quoted = false;
+                        continue;
+                    }
+                } else if (!quoted && b == ',') {
+                    return new String(scratch, 0, len, utf8 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+                } else if (b == '\n') {
+                    return null;
+                }
+                if (len == scratch.length) scratch = Arrays.copyOf(scratch, len * 2);
+                scratch[len++] = b;
+            }
+            return null;
+        }
+
+        private long number() {
+            long v = 0;
+            int digits = 0;
+            while (pos < limit) {
+                byte b = buf.get(pos++);
+                if (b == ',') return digits > 0 ? v : -1;
+                if (b < '0' || b > '9' || digits == 18) return -1;
+                v = v * 10 + (b - '0');
+                digits++;
+            }
+            return -1;
+        }
+
+        // Fixed-format "yyyy-MM-dd HH:mm:ss" decoder, followed by an optional '\r' and the newline.
+        private LocalDateTime timestamp() {
+            if (pos + 19 > limit) return null;
+            int p = pos;
+            if (buf.get(p + 4) != '-' || buf.get(p + 7) != '-' || buf.get(p + 10) != ' '
+                    || buf.get(p + 13) != ':' || buf.get(p + 16) != ':') return null;
+            int year = digits(p, 4), month = digits(p + 5, 2), day = digits(p + 8, 2);
+            int hour = digits(p + 11, 2), minute = digits(p + 14, 2), second = digits(p + 17, 2);
+            if ((year | month | day | hour | minute | second) < 0) return null;
+            pos += 19;
+            if (pos < limit && buf.get(pos) == '\r') pos++;
+            if (pos < limit) {
+                if (buf.get(pos) != '\n') return null;
+                pos++;
+            }
+            return LocalDateTime.of(year, month, day, hour, minute, second);
+        }
+
+        private int digits(int at, int n) {
+            int v = 0;
+            for (int i = 0; i < n; i++) {
+                int d = buf.get(at + i) - '0';
+                if (d < 0 || d > 9) return -1;
+                v = v * 10 + d;
+            }
+            return v;
+        }
+
+        private void skipLine() {
+            while (pos < limit && buf.get(pos++) != '\n') { }
+        }
+    }
+
+    // ===== Load benchmark =====
+    // Writes a synthetic url_mappings.csv with the given number of rows, then times the line-by-line
+    // loader against the parallel mapped loader and a binary snapshot load (same store type for all).
+    private static void runLoadBench(String[] args) throws Exception {
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        Path dir = Files.createTempDirectory("urlshortener-loadbench");
+        Path csv = dir.resolve(DATA_FILE);
+        List<Map.Entry<String, UrlRecord>> sample = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+        try (BufferedWriter bw = Files.newBufferedWriter(csv)) {
             bw.write(CSV_HEADER);
             bw.newLine();
-            for (Map.Entry<String, UrlRecord> e : map.entrySet()) {
-                String code = e.getKey();
-                UrlRecord r = e.getValue();
-                String longUrl = r.longUrl;
-                if (longUrl.contains(",") || longUrl.contains("\"")) {
-                    longUrl = longUrl.replace("\"", "\"\"");
-                    longUrl = "\"" + longUrl + "\"";
-                }
-                bw.write(String.join(",", code, longUrl, String.valueOf(r.id), r.createdAt.format(DTF)));
+            for (long id = 1; id <= rows; id++) {
+                String url = id % 10 == 0 ? "https://example.com/search?q=a,b&page=" + id : "https://example.com/articles/" + id;
+                bw.write(String.join(",", encodeBase62(id), csvField(url), String.valueOf(id), now.format(DTF)));
                 bw.newLine();
             }
         }
+        System.out.printf("rows=%d file=%.1f MB cores=%d%n", rows, Files.size(csv) / 1e6, Runtime.getRuntime().availableProcessors());
+        for (int round = 0; round < 3; round++) {
+            RecordStore slow = RecordStore.newStore(STORE, dir);
+            long t0 = System.nanoTime();
+            long maxSlow = readCsv(csv, slow::put);
+            long slowNs = System.nanoTime() - t0;
+            int slowSize = slow.size();
+            slow = null;
+            System.gc();
+
+            RecordStore fast = RecordStore.newStore(STORE, dir);
+            t0 = System.nanoTime();
+            long maxFast = loadCsvParallel(csv, fast);
+            long fastNs = System.nanoTime() - t0;
+            System.out.printf("round %d: readCsv %.0f ms, loadCsvParallel %.0f ms (%.1fx)  rows %d/%d maxId %d/%d%n",
+                    round + 1, slowNs / 1e6, fastNs / 1e6, (double) slowNs / fastNs, slowSize, fast.size(), maxSlow, maxFast);
+            if (round == 0) {
+                List<Map.Entry<String, UrlRecord>> all = new ArrayList<>(fast.size());
+                fast.forEach((code, rec) -> all.add(new AbstractMap.SimpleImmutableEntry<>(code, rec)));
+                all.sort(Comparator.comparingLong(e -> e.getValue().id));
+                saveSnapshot(dir.resolve(SNAPSHOT_FILE), all, maxFast);
+            }
+            fast = null;
+            System.gc();
+
+            RecordStore snap = RecordStore.newStore(STORE, dir);
+            t0 = System.nanoTime();
+            long maxSnap = readSnapshot(dir.resolve(SNAPSHOT_FILE), (code, rec, urlHash) -> snap.put(code, rec));
+            long snapNs = System.nanoTime() - t0;
+            System.out.printf("         readSnapshot %.0f ms (%.1fx vs readCsv)  rows %d maxId %d  file %.1f MB%n",
+                    snapNs / 1e6, (double) slowNs / snapNs, snap.size(), maxSnap, Files.size(dir.resolve(SNAPSHOT_FILE)) / 1e6);
+        }
+    }
+
+    // ===== Bulk import =====
+    // Reads one URL per line from a file (or stdin for "-"), shortens the whole input with a single
+    // commit and streams "code,longUrl" rows (INVALID for rejected URLs) to the output file or stdout.
+    private static void runBulk(String[] args) throws IOException {
+        String in = args.length > 1 ? args[1] : "-";
+        String out = args.length > 2 ? args[2] : null;
+        // with no output file the rows go to stdout, so the progress lines move to stderr
+        PrintStream log = out == null ? System.err : System.out;
+        List<String> urls = new ArrayList<>();
+        try (BufferedReader br = in.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(in))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) urls.add(line);
+            }
+        }
+        PrintStream stdout = System.out;
+        System.setOut(log);
+        try (Engine engine = new Engine(Paths.get(""), GROUP_COMMIT_MS)) {
+            engine.load();
+            long t0 = System.nanoTime();
+            List<ShortenResult> results = engine.shortenBatch(urls);
+            long ns = System.nanoTime() - t0;
+            int created = 0, existing = 0, invalid = 0;
+            try (BufferedWriter bw = out == null
+                    ? new BufferedWriter(new OutputStreamWriter(stdout, StandardCharsets.UTF_8), 1 << 16)
+                    : Files.newBufferedWriter(Paths.get(out))) {
+                for (int i = 0; i < urls.size(); i++) {
+                    ShortenResult r = results.get(i);
+                    if (r == null) invalid++;
+                    else if (r.created) created++;
+                    else existing++;
+                    bw.write(r == null ? "INVALID" : r.code);
+                    bw.write(',');
+                    bw.write(csvField(urls.get(i)));
+                    bw.newLine();
+                }
+            }
+            log.printf("urls=%d created=%d existing=%d invalid=%d  %.0f ms  %.0f URLs/sec%n",
+                    urls.size(), created, existing, invalid, ns / 1e6, urls.size() / (ns / 1e9));
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    // Shortens a synthetic URL list (10% repeats, 1% invalid) as one shortenBatch() and a prefix of it
+    // one shorten() at a time (each waits for its own commit), each into a fresh store, and reports
+    // URLs/sec for both.
+    private static void runBulkBench(String[] args) throws Exception {
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        List<String> urls = new ArrayList<>(count);
+        Random rnd = new Random(42);
+        for (int i = 0; i < count; i++) {
+            if (i % 100 == 99) urls.add("not a url " + i);
+            else if (i % 10 == 9) urls.add("https://example.com/campaign/" + rnd.nextInt(i));
+            else urls.add("https://example.com/campaign/" + i);
+        }
+        for (int round = 0; round < 3; round++) {
+            int singleCount = Math.min(count, 2_000);
+            long singleNs;
+            try (Engine engine = new Engine(Files.createTempDirectory("urlshortener-bulkbench"), GROUP_COMMIT_MS)) {
+                engine.load();
+                long t0 = System.nanoTime();
+                for (String url : urls.subList(0, singleCount)) {
+                    if (isValidURL(url)) engine.shorten(url);
+                }
+                singleNs = System.nanoTime() - t0;
+            }
+            long batchNs;
+            int batchCodes;
+            try (Engine engine = new Engine(Files.createTempDirectory("urlshortener-bulkbench"), GROUP_COMMIT_MS)) {
+                engine.load();
+                long t0 = System.nanoTime();
+                engine.shortenBatch(urls);
+                batchNs = System.nanoTime() - t0;
+                batchCodes = engine.size();
+            }
+            double singleRate = singleCount / (singleNs / 1e9), batchRate = count / (batchNs / 1e9);
+            System.out.printf("round %d: shorten() %.0f URLs/sec (first %d), shortenBatch() %.0f URLs/sec (%.0fx)  urls %d codes %d%n",
+                    round + 1, singleRate, singleCount, batchRate, batchRate / singleRate, count, batchCodes);
+        }
+    }
+
+    // ===== Streaming export =====
+    private static void runExport(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java URLShortener export <file[.gz]> [codePrefix|-] [from|-] [to|-]");
+            return;
+        }
+        String prefix = args.length > 2 && !args[2].equals("-") ? args[2] : null;
+        LocalDateTime from, to;
+        try {
+            from = args.length > 3 ? parseExportTime(args[3], false) : null;
+            to = args.length > 4 ? parseExportTime(args[4], true) : null;
+        } catch (DateTimeException e) {
+            System.out.println("Invalid date: " + e.getMessage());
+            return;
+        }
+        try (Engine engine = new Engine(Paths.get(""), GROUP_COMMIT_MS)) {
+            engine.load();
+            long t0 = System.nanoTime();
+            long rows = exportToCsv(engine, Paths.get(args[1]), prefix, from, to);
+            System.out.printf("Exported %d mappings to %s in %d ms%n", rows, args[1], (System.nanoTime() - t0) / 1_000_000);
+        }
+    }
+
+    // Seeds a store, then exports it while a writer keeps shortening new URLs and deleting seeded ones.
+    // The export must contain exactly the seeded mappings (point-in-time), and the writer's worst
+    // latency and the heap in use are reported to show that neither depends on the table size.
+    private static void runExportBench(String[] args) throws Exception {
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        Path dir = Files.createTempDirectory("urlshortener-exportbench");
+        try (Engine engine = new Engine(dir, GROUP_COMMIT_MS, PARTITIONS)) {
+            engine.load();
+            for (int i = 0; i < rows; i += 100_000) {
+                List<String> urls = new ArrayList<>();
+                for (int j = i; j < Math.min(rows, i + 100_000); j++) urls.add("https://example.com/export/" + j);
+                engine.shortenBatch(urls);
+            }
+            Random rnd = new Random(7);
+            long baselineWorstNs = 0, baselineWrites = 0;
+            for (long end = System.nanoTime() + 1_000_000_000L; System.nanoTime() < end; baselineWrites++) {
+                long w0 = System.nanoTime();
+                engine.shorten("https://example.com/before-export/" + baselineWrites);
+                engine.delete(encodeBase62(1 + rnd.nextInt(rows)));
+                baselineWorstNs = Math.max(baselineWorstNs, System.nanoTime() - w0);
+            }
+            System.gc();
+            Runtime rt = Runtime.getRuntime();
+            long baseHeap = rt.totalMemory() - rt.freeMemory();
+
+            ExportScan scan = engine.scan();
+            long seeded = engine.size();
+            AtomicBoolean done = new AtomicBoolean();
+            long[] exported = new long[1];
+            Thread exporter = new Thread(() -> {
+                try {
+                    exported[0] = exportToCsv(scan, dir.resolve("export.csv.gz"), null, null, null);
+                } catch (IOException e) {
+                    System.out.println("Failed to export: " + e.getMessage());
+                    exported[0] = -1;
+                } finally {
+                    done.set(true);
+                }
+            }, "exporter");
+            long t0 = System.nanoTime();
+            exporter.start();
+            long writes = 0, worstNs = 0, peakHeap = 0;
+            while (!done.get()) {
+                long w0 = System.nanoTime();
+                engine.shorten("https://example.com/during-export/" + writes);
+                engine.delete(encodeBase62(1 + rnd.nextInt(rows)));
+                worstNs = Math.max(worstNs, System.nanoTime() - w0);
+                writes++;
+                if ((writes & 63) == 0) peakHeap = Math.max(peakHeap, rt.totalMemory() - rt.freeMemory());
+            }
+            exporter.join();
+            double secs = (System.nanoTime() - t0) / 1e9;
+            System.out.printf("rows=%d exported=%d  %.1f s  %.0f rows/sec  %s.gz=%d KB%n", seeded, exported[0], secs,
+                    exported[0] / secs, "export.csv", Files.size(dir.resolve("export.csv.gz")) / 1024);
+            System.out.printf("writer: %d shorten+delete pairs during export, worst pair %.1f ms (%.1f ms in the second before)%n",
+                    writes, worstNs / 1e6, baselineWorstNs / 1e6);
+            System.out.printf("heap above the pre-export baseline: peak %d MB%n", Math.max(0, peakHeap - baseHeap) >> 20);
+            System.out.println(exported[0] == seeded ? "PASS" : "FAIL: export is not the point-in-time table");
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // ===== Click analytics =====
+    private static void runTop(String[] args) {
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        try (ClickStats clicks = new ClickStats(Paths.get(CLICKS_FILE))) {
+            List<Map.Entry<String, Long>> top = clicks.top(n);
+            if (top.isEmpty()) System.out.println("No clicks in the last hour.");
+            System.out.print(formatTop(top));
+        }
+    }
+
+    // ===== HTTP redirect server =====
+    private static void runServer(String[] args) throws IOException {
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        Engine engine = new Engine(Paths.get(""), GROUP_COMMIT_MS);
+        engine.load();
+        HttpServer server = startServer(engine, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(0);
+            try {
+                engine.close();
+            } catch (IOException e) {
+                System.out.println("Failed to close journal: " + e.getMessage());
+            }
+        }));
+        System.out.println("Serving redirects on http://127.0.0.1:" + server.getAddress().getPort() + "/{code} (Ctrl+C to stop)");
+    }
+
+    private static HttpServer startServer(Engine engine, int port) throws IOException {
+        // the JDK server closes idle keep-alive connections beyond this limit (default 200), and without
+        // TCP_NODELAY its separate header/body writes hit Nagle + delayed ACK (~40ms per response)
+        if (System.getProperty("sun.net.httpserver.maxIdleConnections") == null) {
+            System.setProperty("sun.net.httpserver.maxIdleConnections", "65536");
+        }
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+        server.createContext("/", exchange -> handleHttp(engine, exchange));
+        server.setExecutor(newRequestExecutor());
+        server.start();
+        return server;
+    }
+
+    // One virtual thread per request on JDK 21+, a cached pool of platform threads on older runtimes.
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static void handleHttp(Engine engine, HttpExchange ex) throws IOException {
+        try {
+            String method = ex.getRequestMethod();
+            String path = ex.getRequestURI().getPath();
+            if (path.equals("/_stats")) {
+                // '_' is not a base62 character, so this can never shadow a short code
+                sendText(ex, 200, "mappings=" + engine.size() + "\n" + engine.cacheStats() + "\n" + engine.filterStats() + "\n");
+            } else if (path.equals("/_metrics")) {
+                sendText(ex, 200, Metrics.snapshot());
+            } else if (path.equals("/_top")) {
+                String query = ex.getRequestURI().getQuery();
+                int n = 10;
+                if (query != null && query.startsWith("n=")) {
+                    try {
+                        n = Math.max(0, Math.min(1000, Integer.parseInt(query.substring(2))));
+                    } catch (NumberFormatException e) {
+                        sendText(ex, 400, "n must be a number.\n");
+                        return;
+                    }
+                }
+                sendText(ex, 200, formatTop(engine.topCodes(n)));
+            } else if (path.equals("/shorten")) {
+                if (!method.equals("POST")) {
+                    sendText(ex, 405, "Use POST /shorten with the long URL as the body.\n");
+                    return;
+                }
+                String longUrl = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).trim();
+                if (longUrl.startsWith("url=")) longUrl = URLDecoder.decode(longUrl.substring(4), StandardCharsets.UTF_8);
+                if (!isValidURL(longUrl)) {
+                    sendText(ex, 400, "Invalid URL format. Include protocol (http/https).\n");
+                    return;
+                }
+                ShortenResult result = engine.shorten(longUrl);
+                sendText(ex, result.created ? 201 : 200, result.code + "\n");
+            } else if ((method.equals("GET") || method.equals("HEAD")) && path.length() > 1 && path.indexOf('/', 1) < 0) {
+                String code = path.substring(1);
+                UrlRecord rec = engine.resolve(code);
+                if (rec == null) {
+                    sendText(ex, 404, "No mapping found for code: " + code + "\n");
+                } else {
+                    // a short body instead of sendResponseHeaders(302, -1): the JDK server drops the
+                    // keep-alive connection after a body-less response
+                    if (method.equals("GET")) engine.recordClick(code);
+                    ex.getResponseHeaders().set("Location", rec.longUrl);
+                    sendText(ex, 302, rec.longUrl + "\n");
+                }
+            } else {
+                sendText(ex, 404, "Not found\n");
+            }
+        } finally {
+            ex.close();
+        }
+    }
+
+    private static String formatTop(List<Map.Entry<String, Long>> top) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : top) sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        return sb.toString();
+    }
+
+    private static void sendText(HttpExchange ex, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        if (ex.getRequestMethod().equals("HEAD")) {
+            ex.sendResponseHeaders(status, -1);
+            return;
+        }
+        ex.sendResponseHeaders(status, bytes.length);
+        ex.getResponseBody().write(bytes);
+    }
+
+    // ===== Load test =====
+    // Starts a server on an ephemeral port over a temp store, then drives GET /{code} from many
+    // keep-alive connections and reports redirect latency percentiles and requests per second.
+    private static void runLoadTest(String[] args) throws Exception {
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        Path dir = Files.createTempDirectory("urlshortener-load");
+        try (Engine engine = new Engine(dir, GROUP_COMMIT_MS)) {
+            engine.load();
+            List<String> codes = seed(engine, 10_000);
+            HttpServer server = startServer(engine, 0);
+            int port = server.getAddress().getPort();
+
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            ExecutorService pool = Executors.newFixedThreadPool(connections);
+            long[][] perConnection = new long[connections][];
+            int total = 0;
+            try {
+                List<Future<long[]>> futures = new ArrayList<>();
+                for (int c = 0; c < connections; c++) {
+                    final int seed = c;
+                    futures.add(pool.submit(() -> redirectLoop(port, codes, seed, deadline)));
+                }
+                for (int c = 0; c < connections; c++) {
+                    perConnection[c] = futures.get(c).get();
+                    total += perConnection[c].length;
+                }
+            } finally {
+                pool.shutdownNow();
+                server.stop(0);
+                ((ExecutorService) server.getExecutor()).shutdown();
+            }
+
+            long[] all = new long[total];
+            int pos = 0;
+            for (long[] l : perConnection) {
+                System.arraycopy(l, 0, all, pos, l.length);
+                pos += l.length;
+            }
+            Arrays.sort(all);
+            if (total == 0) {
+                System.out.println("No requests completed.");
+                return;
+            }
+            System.out.printf("connections=%d duration=%ds requests=%d  %.0f req/sec  p50=%.3fms  p99=%.3fms  max=%.3fms%n",
+                    connections, seconds, total, total / (double) seconds,
+                    all[total / 2] / 1e6, all[(int) (total * 0.99)] / 1e6, all[total - 1] / 1e6);
+            System.out.println(engine.cacheStats());
+            System.out.println(engine.filterStats());
+            List<Map.Entry<String, Long>> top = engine.topCodes(5);
+            if (!top.isEmpty()) System.out.print("top codes, last hour:\n" + formatTop(top));
+        }
+    }
+
+    // Shortens n URLs from many threads at once so they share journal group commits.
+    private static List<String> seed(Engine engine, int n) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(256);
+        List<Future<String>> futures = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String url = "https://example.com/page/" + i;
+            futures.add(pool.submit(() -> engine.shorten(url).code));
+        }
+        List<String> codes = new ArrayList<>(n);
+        for (Future<String> f : futures) codes.add(f.get());
+        pool.shutdown();
+        return codes;
+    }
+
+    // Sends GETs over one keep-alive socket until the deadline; returns each request's latency in ns.
+    private static long[] redirectLoop(int port, List<String> codes, int seed, long deadline) throws IOException {
+        Random rnd = new Random(seed);
+        long[] latencies = new long[1024];
+        int n = 0;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            while (System.nanoTime() < deadline) {
+                // skewed like real redirect traffic: a few percent of the codes get most of the requests
+                double u = rnd.nextDouble();
+                String code = codes.get((int) (codes.size() * u * u * u * u));
+                long t0 = System.nanoTime();
+                out.write(("GET /" + code + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                int status = readResponse(in);
+                long t = System.nanoTime() - t0;
+                if (status != 302) throw new IOException("Unexpected status " + status + " for code " + code);
+                if (n == latencies.length) latencies = Arrays.copyOf(latencies, n * 2);
+                latencies[n++] = t;
+            }
+        }
+        return Arrays.copyOf(latencies, n);
+    }
+
+    // Reads one HTTP/1.1 response (status line, headers, Content-Length body) and returns its status.
+    private static int readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        int status = Integer.parseInt(statusLine.split(" ")[1]);
+        int length = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).equalsIgnoreCase("Content-Length")) {
+                length = Integer.parseInt(line.substring(colon + 1).trim());
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            if (in.read() < 0) throw new EOFException("Connection closed mid-body");
+        }
+        return status;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) throw new EOFException("Connection closed");
+            if (c != '\r') sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    // ===== Stress check =====
+    // Hammers one Engine from many threads, then verifies codes are unique, shared URLs were
+    // deduplicated to a single code, nothing was lost, and a reload from disk sees the same state.
+    private static void runStress(String[] args) throws Exception {
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int perThread = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+        Path dir = Files.createTempDirectory("urlshortener-stress");
+        Map<String, String> issued = new ConcurrentHashMap<>(); // code -> url
+        Map<String, String> byUrl = new ConcurrentHashMap<>();  // url -> code
+        Set<String> deleted = ConcurrentHashMap.newKeySet();
+        AtomicInteger failures = new AtomicInteger();
+
+        long elapsed;
+        try (Engine engine = new Engine(dir, GROUP_COMMIT_MS)) {
+            engine.load();
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        // every other URL is shared by all threads to exercise concurrent dedup
+                        String url = i % 2 == 0 ? "https://example.com/shared/" + i : "https://example.com/" + thread + "/" + i;
+                        ShortenResult r = engine.shorten(url);
+                        String prevUrl = issued.putIfAbsent(r.code, url);
+                        String prevCode = byUrl.putIfAbsent(url, r.code);
+                        if ((prevUrl != null && !prevUrl.equals(url)) || (prevCode != null && !prevCode.equals(r.code))) {
+                            failures.incrementAndGet();
+                        }
+                        UrlRecord rec = engine.resolve(r.code);
+                        if (rec == null || !rec.longUrl.equals(url)) failures.incrementAndGet();
+                        if (i % 10 == 1) {
+                            if (!engine.delete(r.code)) failures.incrementAndGet();
+                            deleted.add(r.code);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            long t0 = System.nanoTime();
+            start.countDown();
+            for (Future<?> f : futures) f.get();
+            elapsed = System.nanoTime() - t0;
+            pool.shutdown();
+            failures.addAndGet(verify(engine, issued, deleted));
+        }
+
+        try (Engine reloaded = new Engine(dir, GROUP_COMMIT_MS)) {
+            reloaded.load();
+            failures.addAndGet(verify(reloaded, issued, deleted));
+        }
+
+        long ops = (long) threads * perThread;
+        System.out.printf("threads=%d shortens=%d codes=%d deleted=%d  %.0f shortens/sec  failures=%d%n",
+                threads, ops, issued.size(), deleted.size(), ops / (elapsed / 1e9), failures.get());
+        System.out.println(failures.get() == 0 ? "PASS" : "FAIL");
+    }
+
+    private static int verify(Engine engine, Map<String, String> issued, Set<String> deleted) {
+        int failures = 0;
+        if (engine.size() != issued.size() - deleted.size()) failures++;
+        for (Map.Entry<String, String> e : issued.entrySet()) {
+            UrlRecord rec = engine.resolve(e.getKey());
+            boolean expectPresent = !deleted.contains(e.getKey());
+            if (expectPresent != (rec != null) || (rec != null && !rec.longUrl.equals(e.getValue()))) failures++;
+        }
+        return failures;
+    }
+
+    // write as CSV with simple escaping for commas by surrounding longUrl with quotes if needed
+    static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
     }
 
     // Simple CSV splitter that handles quoted fields (longUrl may be quoted)
-    private static String[] splitCsvLine(String line) {
+    static String[] splitCsvLine(String line) {
         List<String> parts = new ArrayList<>();
         StringBuilder cur = new StringBuilder();
         boolean inQuotes = false;
@@ -337,17 +1449,65 @@ public class URLShortener {
         return parts.toArray(new String[0]);
     }
 
-    // ===== Helper Classes =====
-    private static class UrlRecord {
-        final String longUrl;
-        final long id;
-        final LocalDateTime createdAt;
+    // ===== Rebalance =====
+    // Offline: loads the store with its current partition count, writes every mapping into a new
+    // layout with the requested count (snapshots only, journals folded in), switches the layout file
+    // and then removes the old layout's files.
+    private static void runRebalance(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java URLShortener rebalance <partitions>");
+            return;
+        }
+        int target = Integer.parseInt(args[1]);
+        if (target < 1) throw new IOException("Partition count must be at least 1");
+        Path dir = Paths.get("");
+        int current = Engine.readLayout(dir);
+        if (current == target) {
+            System.out.println("Store already has " + target + " partition(s).");
+            return;
+        }
+        List<List<Map.Entry<String, UrlRecord>>> parts = new ArrayList<>();
+        for (int i = 0; i < target; i++) parts.add(new ArrayList<>());
+        long maxId;
+        try (Engine engine = new Engine(dir, 0, current)) {
+            engine.load();
+            for (Iterator<Map.Entry<String, UrlRecord>> it = engine.recordsInIdOrder(); it.hasNext(); ) {
+                Map.Entry<String, UrlRecord> e = it.next();
+                parts.get(Engine.partitionOf(UrlIndex.hash(e.getValue().longUrl), target)).add(e);
+            }
+            maxId = engine.maxAllocatedId();
+        }
+        if (target > 1) deleteTree(dir.resolve("partitions-" + target)); // leftovers of an interrupted run
+        for (int i = 0; i < target; i++) {
+            Path pd = Engine.partitionDir(dir, i, target);
+            Files.createDirectories(pd);
+            deleteStoreFiles(pd);
+            if (!saveSnapshot(pd.resolve(SNAPSHOT_FILE), parts.get(i), maxId)) throw new IOException("Failed to write partition " + i);
+            System.out.println("Partition " + i + ": " + parts.get(i).size() + " mappings");
+        }
+        Engine.writeLayout(dir, target);
+        if (current > 1) deleteTree(dir.resolve("partitions-" + current));
+        else deleteStoreFiles(dir);
+        System.out.println("Rebalanced from " + current + " to " + target + " partition(s).");
+    }
+
+    // Everything a partition keeps in its directory (the CSV import/export file is left alone).
+    private static void deleteStoreFiles(Path pd) throws IOException {
+        for (String f : new String[] {SNAPSHOT_FILE, JOURNAL_FILE, COMPACTING_FILE, MappedRecordStore.IDX_FILE,
+                MappedRecordStore.DAT_FILE, MappedRecordStore.OVERFLOW_FILE, MappedRecordStore.IDX_FILE + MappedRecordStore.NEXT,
+                MappedRecordStore.IDX_FILE + MappedRecordStore.COMPACT, MappedRecordStore.DAT_FILE + MappedRecordStore.COMPACT}) {
+            Files.deleteIfExists(pd.resolve(f));
+        }
+    }
 
-        UrlRecord(String longUrl, long id, LocalDateTime createdAt) {
-            this.longUrl = longUrl;
-            this.id = id;
-            this.createdAt = createdAt;
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) return;
+        List<Path> paths = new ArrayList<>();
+        try (java.util.stream.Stream<Path> walk = Files.walk(root)) {
+            walk.forEach(paths::add);
         }
+        Collections.reverse(paths);
+        for (Path p : paths) Files.delete(p);
     }
 }
 
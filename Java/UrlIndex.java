@@ -0,0 +1,97 @@
+import java.util.function.LongConsumer;
+
+/**
+ * Reverse index from long URL to code. Open addressing over a primitive long[] of 64-bit
+ * URL hashes, so there is no boxed key or copied URL per entry; the URL itself is only read
+ * from the record store to confirm a hash match, which also resolves 64-bit collisions.
+ */
+class UrlIndex {
+    private long[] hashes = new long[16];
+    private String[] codes = new String[16];
+    private int size;
+
+    String find(String longUrl, RecordStore records) {
+        long h = hash(longUrl);
+        int mask = codes.length - 1;
+        for (int i = (int) h & mask; codes[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] == h && records.urlEquals(codes[i], longUrl)) return codes[i];
+        }
+        return null;
+    }
+
+    void put(String longUrl, String code) {
+        put(hash(longUrl), code);
+    }
+
+    // For callers that already hold hash(longUrl), e.g. a snapshot load.
+    void put(long h, String code) {
+        if ((size + 1) * 4 > codes.length * 3) resize(codes.length * 2);
+        insert(h, code);
+        size++;
+    }
+
+    void remove(String longUrl, String code) {
+        long h = hash(longUrl);
+        int mask = codes.length - 1;
+        int i = (int) h & mask;
+        while (codes[i] != null && !(hashes[i] == h && codes[i].equals(code))) i = (i + 1) & mask;
+        if (codes[i] == null) return;
+        // backward-shift deletion keeps probe chains intact without tombstones
+        int gap = i;
+        for (int j = (gap + 1) & mask; codes[j] != null; j = (j + 1) & mask) {
+            int home = (int) hashes[j] & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                hashes[gap] = hashes[j];
+                codes[gap] = codes[j];
+                gap = j;
+            }
+        }
+        codes[gap] = null;
+        size--;
+    }
+
+    void forEachHash(LongConsumer action) {
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i] != null) action.accept(hashes[i]);
+        }
+    }
+
+    void clear() {
+        hashes = new long[16];
+        codes = new String[16];
+        size = 0;
+    }
+
+    private void insert(long h, String code) {
+        int mask = codes.length - 1;
+        int i = (int) h & mask;
+        while (codes[i] != null) i = (i + 1) & mask;
+        hashes[i] = h;
+        codes[i] = code;
+    }
+
+    private void resize(int cap) {
+        long[] oldHashes = hashes;
+        String[] oldCodes = codes;
+        hashes = new long[cap];
+        codes = new String[cap];
+        for (int i = 0; i < oldCodes.length; i++) {
+            if (oldCodes[i] != null) insert(oldHashes[i], oldCodes[i]);
+        }
+    }
+
+    // 64-bit FNV-1a over the UTF-16 chars, finished with the murmur3 fmix64 avalanche
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,14 @@
+import java.time.LocalDateTime;
+
+// One mapping: the long URL, its id (a generated code is encodeBase62 of it) and when it was created.
+class UrlRecord {
+    final String longUrl;
+    final long id;
+    final LocalDateTime createdAt;
+
+    UrlRecord(String longUrl, long id, LocalDateTime createdAt) {
+        this.longUrl = longUrl;
+        this.id = id;
+        this.createdAt = createdAt;
+    }
+}
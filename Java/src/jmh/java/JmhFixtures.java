@@ -0,0 +1,481 @@
+import bench.Fixture;
+import bench.Fixtures;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * JmhFixtures - the data the JMH suite in src/jmh/java/bench runs against, built over the programs
+ * in the default package (which the bench package can't import; see bench.Fixtures)
+ *
+ * Each method sets up one benchmark state and returns the measured call as a Fixture. Files go to
+ * a temporary directory that closing the Fixture deletes. Inputs are cycled by the calling thread's
+ * own count, or drawn from ThreadLocalRandom, so nothing shared is written while measuring.
+ */
+public final class JmhFixtures implements Fixtures {
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+    private static final String[] PASSWORDS = {"password123", "Tr0ub4dor&3", "correct horse battery staple", "aaaBBB111!!!", "Xk9#mQ2$vL7!pR4@"};
+
+    // ===== URLShortener =====
+    @Override
+    public Fixture encodeBase62() {
+        return i -> URLShortener.encodeBase62(i * 7919L + 1).length();
+    }
+
+    @Override
+    public Fixture splitCsvLine(String line) {
+        String csv = line.equals("quoted")
+                ? "aB4,\"https://example.com/search?q=a,b&c=\"\"d\"\"\",12346,2024-01-01 10:00:00"
+                : "aB3,https://example.com/articles/12345,12345,2024-01-01 10:00:00";
+        return i -> URLShortener.splitCsvLine(csv).length;
+    }
+
+    @Override
+    public Fixture urlShortenerFiles(String benchmark, int rows) {
+        Path dir = tempDir();
+        List<Map.Entry<String, UrlRecord>> records = records(rows);
+        Path csv = dir.resolve("bench.csv");
+        Path bin = dir.resolve("bench.bin");
+        // the reads need the files the saves write
+        if (!URLShortener.saveToFile(csv, records) || !URLShortener.saveSnapshot(bin, records, rows)) {
+            throw new IllegalStateException("Failed to write the " + rows + "-row fixtures in " + dir);
+        }
+        Fixture op;
+        switch (benchmark) {
+            case "saveToFile":
+                op = i -> URLShortener.saveToFile(csv, records) ? 1 : 0;
+                break;
+            case "readCsv":
+                op = i -> URLShortener.readCsv(csv, (code, rec) -> { });
+                break;
+            case "loadCsvParallel":
+                op = i -> URLShortener.loadCsvParallel(csv, RecordStore.newStore("hash", dir));
+                break;
+            case "saveSnapshot":
+                op = i -> URLShortener.saveSnapshot(bin, records, rows) ? 1 : 0;
+                break;
+            case "readSnapshot":
+                op = i -> URLShortener.readSnapshot(bin, (code, rec, urlHash) -> { });
+                break;
+            default:
+                throw unknown(benchmark);
+        }
+        return closing(op, () -> deleteTree(dir));
+    }
+
+    private static List<Map.Entry<String, UrlRecord>> records(int rows) {
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+        List<Map.Entry<String, UrlRecord>> list = new ArrayList<>(rows);
+        for (long id = 1; id <= rows; id++) {
+            String url = id % 10 == 0 ? "https://example.com/search?q=a,b&page=" + id : "https://example.com/articles/" + id;
+            list.add(new AbstractMap.SimpleImmutableEntry<>(URLShortener.encodeBase62(id), new UrlRecord(url, id, now)));
+        }
+        return list;
+    }
+
+    @Override
+    public Fixture engineResolve(boolean metrics) throws Exception {
+        Path dir = tempDir();
+        Engine seeded = new Engine(dir, 5);
+        seeded.load();
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) urls.add("https://example.com/seed/" + i);
+        List<ShortenResult> seededCodes = seeded.shortenBatch(urls);
+        String[] codes = new String[seededCodes.size()];
+        for (int i = 0; i < codes.length; i++) codes[i] = seededCodes.get(i).code;
+        Metrics.setEnabled(metrics);
+        return closing(i -> seeded.resolve(codes[ThreadLocalRandom.current().nextInt(codes.length)]).id, () -> {
+            Metrics.setEnabled(true);
+            seeded.close();
+            deleteTree(dir);
+        });
+    }
+
+    @Override
+    public Fixture engineShorten() throws Exception {
+        Path dir = tempDir();
+        Engine engine = new Engine(dir, 5);
+        engine.load();
+        // a URL no thread has shortened before, from the thread's own count
+        return closing(i -> engine.shorten("https://example.com/new/" + Thread.currentThread().getId() + "/" + i).code.length(), () -> {
+            engine.close();
+            deleteTree(dir);
+        });
+    }
+
+    // ===== PasswordStrengthAnalyzer =====
+    @Override
+    public Fixture passwords(String benchmark) {
+        switch (benchmark) {
+            case "analyzePassword":
+                return quiet(i -> PasswordStrengthAnalyzer.analyzePassword(PASSWORDS[i % PASSWORDS.length]));
+            case "analyze":
+            case "analyzeParallel":
+                return i -> PasswordStrengthAnalyzer.analyze(PASSWORDS[ThreadLocalRandom.current().nextInt(PASSWORDS.length)]).score;
+            case "referenceScore": {
+                String[] corpus = PasswordStrengthAnalyzer.passwordCorpus(1 << 20, 42);
+                return i -> PasswordStrengthAnalyzer.referenceScore(corpus[i & (corpus.length - 1)]);
+            }
+            case "scoreBits": {
+                String[] corpus = PasswordStrengthAnalyzer.passwordCorpus(1 << 20, 42);
+                return i -> PasswordStrengthAnalyzer.scoreBits(corpus[i & (corpus.length - 1)]);
+            }
+            case "hashPassword":
+                return i -> PasswordStrengthAnalyzer.hashPassword(PASSWORDS[i % PASSWORDS.length]).length();
+            default:
+                throw unknown(benchmark);
+        }
+    }
+
+    @Override
+    public Fixture passwordHistory(String benchmark, int size) throws Exception {
+        Path dir = tempDir();
+        File history = dir.resolve("history.txt").toFile();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(history))) {
+            for (int n = 0; n < size; n++) {
+                bw.write(PasswordStrengthAnalyzer.hashPassword("history-" + n));
+                bw.newLine();
+            }
+        }
+        // the first open imports the text file into the sorted index
+        long t0 = System.nanoTime();
+        PasswordStrengthAnalyzer.HistoryStore store = PasswordStrengthAnalyzer.HistoryStore.open(history.toPath());
+        System.out.printf("(imported %d digests in %.0f ms)%n", store.size(), (System.nanoTime() - t0) / 1e6);
+        Fixture op;
+        switch (benchmark) {
+            case "isPasswordUsedBefore":
+                op = i -> PasswordStrengthAnalyzer.isPasswordUsedBefore("never-used", store) ? 1 : 0;
+                break;
+            case "historyContains": {
+                byte[][] digests = new byte[1024][];
+                for (int d = 0; d < digests.length; d++) digests[d] = PasswordStrengthAnalyzer.digest("probe-" + d);
+                op = i -> store.contains(digests[i & 1023]) ? 1 : 0;
+                break;
+            }
+            default:
+                throw unknown(benchmark);
+        }
+        return closing(op, () -> {
+            store.close();
+            deleteTree(dir);
+        });
+    }
+
+    @Override
+    public Fixture breachIndex(int hashes, String lookup) throws Exception {
+        // uniform random 8-byte hash prefixes, like the start of real SHA-1 hashes
+        Path dir = tempDir();
+        Path file = dir.resolve("breaches.bidx");
+        long t0 = System.nanoTime();
+        try (PasswordStrengthAnalyzer.BreachIndex.Builder b = new PasswordStrengthAnalyzer.BreachIndex.Builder(file, 20)) {
+            SplittableRandom rnd = new SplittableRandom(hashes);
+            for (int n = 0; n < hashes; n++) b.add(rnd.nextLong(), 1 + (n & 1023));
+            b.finish();
+        }
+        System.out.printf("(built %d-hash index in %.1f s, %.0f MB)%n", hashes, (System.nanoTime() - t0) / 1e9,
+                Files.size(file) / 1048576.0);
+        PasswordStrengthAnalyzer.BreachIndex breaches = PasswordStrengthAnalyzer.BreachIndex.open(file);
+        // what cold lookups cost in memory: page faults and resident mapped memory over 10000 random
+        // lookups (the kernel maps up to 16 neighbouring pages per fault, so resident grows faster)
+        double before = residentFileMb();
+        long faults = minorFaults();
+        SplittableRandom probe = new SplittableRandom(7);
+        for (int n = 0; n < 10_000; n++) breaches.occurrences(probe.nextLong());
+        System.out.printf("(%.2f page faults per cold lookup; resident mapped memory %.1f MB after open, %.1f MB after 10000 lookups)%n",
+                (minorFaults() - faults) / 10_000.0, before, residentFileMb());
+        // every hash that went in comes back with its count
+        long[] hits = new long[1 << 16];
+        SplittableRandom rnd = new SplittableRandom(hashes);
+        for (int n = 0; n < Math.min(hashes, 1 << 20); n++) {
+            long key = rnd.nextLong();
+            if (n < hits.length) hits[n] = key;
+            if (breaches.occurrences(key) != 1 + (n & 1023)) throw new IllegalStateException("breach index lost hash #" + n);
+        }
+        Fixture op;
+        switch (lookup) {
+            case "hit": {
+                int n = Math.min(hashes, hits.length);
+                op = i -> breaches.occurrences(hits[ThreadLocalRandom.current().nextInt(n)]);
+                break;
+            }
+            case "miss": {
+                long[] misses = new long[1 << 16];
+                SplittableRandom other = new SplittableRandom(-hashes);
+                for (int n = 0; n < misses.length; n++) misses[n] = other.nextLong();
+                op = i -> breaches.occurrences(misses[ThreadLocalRandom.current().nextInt(misses.length)]);
+                break;
+            }
+            case "password":
+                // including the SHA-1 of the password, what analyze() pays
+                op = i -> breaches.occurrences(PASSWORDS[i % PASSWORDS.length]);
+                break;
+            default:
+                throw unknown(lookup);
+        }
+        return closing(op, () -> deleteTree(dir));
+    }
+
+    // Resident memory backed by mapped files (Linux), in MB; -1 where /proc isn't available.
+    private static double residentFileMb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("RssFile:")) return Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024.0;
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    // Minor page faults of this process so far (Linux), or 0.
+    private static long minorFaults() {
+        try {
+            String stat = new String(Files.readAllBytes(Paths.get("/proc/self/stat")), StandardCharsets.US_ASCII);
+            // fields after the parenthesised command name; minflt is the 10th field overall
+            return Long.parseLong(stat.substring(stat.lastIndexOf(')') + 2).split(" ")[7]);
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public Fixture dictionary(String benchmark, int size) throws Exception {
+        // lowercase/digit words of 4-12 characters, like a cracked-password list
+        Path dir = tempDir();
+        Random rnd = new Random(size);
+        List<String> words = new ArrayList<>(size);
+        Path list = dir.resolve("words.txt");
+        try (BufferedWriter bw = Files.newBufferedWriter(list)) {
+            for (int n = 0; n < size; n++) {
+                char[] w = new char[4 + rnd.nextInt(9)];
+                for (int c = 0; c < w.length; c++) w[c] = "abcdefghijklmnopqrstuvwxyz0123456789".charAt(rnd.nextInt(36));
+                words.add(new String(w));
+                bw.write(w);
+                bw.newLine();
+            }
+        }
+        PasswordStrengthAnalyzer.DictionaryMatcher matcher = PasswordStrengthAnalyzer.DictionaryMatcher.load(list);
+        System.out.printf("(%d words, %d nodes, %.1f MB of arrays)%n", matcher.size(), matcher.nodes(),
+                matcher.footprintBytes() / 1048576.0);
+        Fixture op;
+        switch (benchmark) {
+            case "dictionaryLoad":
+                op = i -> PasswordStrengthAnalyzer.DictionaryMatcher.load(list).size();
+                break;
+            case "dictionaryFirstMatch":
+                op = i -> {
+                    int[] m = matcher.firstMatch(PASSWORDS[i % PASSWORDS.length]);
+                    return m == null ? 0 : m[1];
+                };
+                break;
+            case "dictionaryForEachMatch":
+                op = i -> {
+                    long[] found = new long[1];
+                    matcher.forEachMatch(PASSWORDS[i % PASSWORDS.length], (start, end) -> found[0] += end);
+                    return found[0];
+                };
+                break;
+            case "dictionaryContainsLoop":
+                op = i -> {
+                    String lower = PASSWORDS[i % PASSWORDS.length].toLowerCase();
+                    for (String w : words) if (lower.contains(w)) return 1;
+                    return 0;
+                };
+                break;
+            default:
+                throw unknown(benchmark);
+        }
+        return closing(op, () -> deleteTree(dir));
+    }
+
+    // ===== StudentDatabase =====
+    @Override
+    public Fixture studentDatabase(String benchmark, int size) {
+        StudentDatabase db = new StudentDatabase();
+        PrintStream console = System.out;
+        System.setOut(DISCARD);
+        try {
+            for (int n = 0; n < size; n++) db.addStudent("Student " + n, "reading", n % 100);
+        } finally {
+            System.setOut(console);
+        }
+        switch (benchmark) {
+            case "searchByName":
+                return quiet(i -> {
+                    db.searchByName("student " + (i % size));
+                    return 1;
+                });
+            case "studentsWithMarks":
+                return i -> {
+                    int marks = i % 100;
+                    return db.studentsWithMarks(marks, marks + 1).size();
+                };
+            case "topStudents":
+                return i -> db.topStudents(10).size();
+            case "rankOfMarks":
+            case "rankOfMarksParallel":
+                return i -> db.rankOfMarks(i % 100 + 0.5);
+            default:
+                throw unknown(benchmark);
+        }
+    }
+
+    // Builds the cohort as Student objects, as StudentColumns and in a StudentDatabase, and fails
+    // unless the columnar statistics agree with the same statistics over the objects.
+    @Override
+    public Fixture cohortStatistics(String benchmark, int size) {
+        String[] hobbies = {"reading", "chess", "football", "music", "painting", "coding", "dance", "cricket"};
+        Random rnd = new Random(7);
+        List<Student> objects = new ArrayList<>(size);
+        StudentColumns columns = new StudentColumns();
+        for (int n = 0; n < size; n++) {
+            double marks = Math.round(Math.min(100, Math.max(0, 70 + 15 * rnd.nextGaussian())) * 10) / 10.0;
+            Student s = new Student(n + 1, "Student " + n, hobbies[rnd.nextInt(hobbies.length)], marks);
+            objects.add(s);
+            columns.add(s.getName(), s.getHobbies(), s.getMarks());
+        }
+        int mismatches = 0;
+        if (Math.abs(columns.meanMarks() - objectMean(objects)) > 1e-9) mismatches++;
+        for (double p : new double[] {0, 1, 50, 90, 99.9, 100}) {
+            if (columns.percentileMarks(p) != objectPercentile(objects, p)) mismatches++;
+        }
+        if (!Arrays.equals(columns.gradeBands(), objectBands(objects))) mismatches++;
+        Map<String, double[]> groups = objectGroups(objects);
+        for (StudentColumns.HobbyGroup g : columns.groupByHobby()) {
+            double[] expected = groups.remove(g.hobby);
+            if (expected == null || expected[0] != g.count || Math.abs(expected[1] / expected[0] - g.meanMarks) > 1e-9) mismatches++;
+        }
+        if (!groups.isEmpty()) mismatches++;
+        // the same students in a database, with every tenth one added twice and the copy removed
+        // again, so removals have moved rows around
+        StudentDatabase db = new StudentDatabase();
+        for (int n = 0; n < size; n++) {
+            Student s = objects.get(n);
+            db.add(s.getName(), s.getHobbies(), s.getMarks());
+            if (n % 10 == 0) db.remove(db.add(s.getName(), "removed", 100));
+        }
+        if (Math.abs(db.statistics(StudentColumns::meanMarks) - objectMean(objects)) > 1e-9) mismatches++;
+        if (db.statistics(c -> c.percentileMarks(90)) != objectPercentile(objects, 90)) mismatches++;
+        if (!Arrays.equals(db.statistics(StudentColumns::gradeBands), columns.gradeBands())) mismatches++;
+        if (db.statistics(StudentColumns::groupByHobby).size() != columns.groupByHobby().size()) mismatches++;
+        if (mismatches > 0) throw new IllegalStateException(mismatches + " columnar statistics mismatches over " + size + " students");
+
+        switch (benchmark) {
+            case "objectsMeanMarks":
+                return i -> (long) objectMean(objects);
+            case "columnsMeanMarks":
+                return i -> (long) columns.meanMarks();
+            case "objectsPercentileMarks":
+                return i -> (long) objectPercentile(objects, 90);
+            case "columnsPercentileMarks":
+                return i -> (long) columns.percentileMarks(90);
+            case "objectsGradeBands":
+                return i -> objectBands(objects)[0];
+            case "columnsGradeBands":
+                return i -> columns.gradeBands()[0];
+            case "objectsGroupByHobby":
+                return i -> objectGroups(objects).size();
+            case "columnsGroupByHobby":
+                return i -> columns.groupByHobby().size();
+            case "statisticsMeanMarks":
+                return i -> db.statistics(StudentColumns::meanMarks).longValue();
+            case "statisticsPercentileMarks":
+                return i -> db.statistics(c -> c.percentileMarks(90)).longValue();
+            default:
+                throw unknown(benchmark);
+        }
+    }
+
+    private static double objectMean(List<Student> students) {
+        double sum = 0;
+        for (Student s : students) sum += s.getMarks();
+        return sum / students.size();
+    }
+
+    // Nearest rank, like StudentColumns.percentileMarks, by sorting every mark.
+    private static double objectPercentile(List<Student> students, double p) {
+        double[] marks = new double[students.size()];
+        for (int i = 0; i < marks.length; i++) marks[i] = students.get(i).getMarks();
+        Arrays.sort(marks);
+        long rank = Math.min(marks.length, Math.max(1, (long) Math.ceil(p / 100 * marks.length)));
+        return marks[(int) rank - 1];
+    }
+
+    private static long[] objectBands(List<Student> students) {
+        long[] bands = new long[StudentColumns.BANDS.length];
+        for (Student s : students) {
+            double m = s.getMarks();
+            bands[m >= 90 ? 0 : m >= 80 ? 1 : m >= 70 ? 2 : m >= 60 ? 3 : 4]++;
+        }
+        return bands;
+    }
+
+    // hobby -> {count, total marks}
+    private static Map<String, double[]> objectGroups(List<Student> students) {
+        Map<String, double[]> groups = new HashMap<>();
+        for (Student s : students) {
+            double[] g = groups.computeIfAbsent(s.getHobbies(), h -> new double[2]);
+            g[0]++;
+            g[1] += s.getMarks();
+        }
+        return groups;
+    }
+
+    // ===== Metrics =====
+    @Override
+    public Fixture timer(int sampleEvery) {
+        Metrics.Timer timer = Metrics.timer("bench.timer." + sampleEvery, sampleEvery);
+        return i -> {
+            long t0 = timer.start();
+            timer.stop(t0);
+            return t0;
+        };
+    }
+
+    // ===== Helpers =====
+    // op, with close() running the given cleanup
+    private static Fixture closing(Fixture op, AutoCloseable cleanup) {
+        return new Fixture() {
+            @Override
+            public long run(int i) throws Exception {
+                return op.run(i);
+            }
+
+            @Override
+            public void close() throws Exception {
+                cleanup.close();
+            }
+        };
+    }
+
+    // op with the console discarded until close (for calls that print their results)
+    private static Fixture quiet(Fixture op) {
+        PrintStream console = System.out;
+        System.setOut(DISCARD);
+        return closing(op, () -> System.setOut(console));
+    }
+
+    private static Path tempDir() {
+        try {
+            return Files.createTempDirectory("benchmarks");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static IllegalArgumentException unknown(String benchmark) {
+        return new IllegalArgumentException("No fixture for " + benchmark);
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (java.util.stream.Stream<Path> walk = Files.walk(root)) {
+            walk.forEach(paths::add);
+        }
+        Collections.reverse(paths);
+        for (Path p : paths) Files.deleteIfExists(p);
+    }
+}
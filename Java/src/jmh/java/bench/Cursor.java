@@ -0,0 +1,16 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** Per-thread call count handed to Fixture.run, so threads never share a counter. */
+@State(Scope.Thread)
+public class Cursor {
+    private int next;
+
+    int next() {
+        int i = next;
+        next = (i + 1) & Integer.MAX_VALUE;
+        return i;
+    }
+}
@@ -0,0 +1,17 @@
+package bench;
+
+/**
+ * One benchmarked call and whatever it runs against (see Fixtures); closing it releases that
+ * (temporary files, engines, the console it silenced).
+ */
+public interface Fixture extends AutoCloseable {
+    /**
+     * Makes the benchmarked call once and returns something derived from its result, for the
+     * Blackhole. i counts the calling thread's calls, so inputs can be cycled without shared state.
+     */
+    long run(int i) throws Exception;
+
+    @Override
+    default void close() throws Exception {
+    }
+}
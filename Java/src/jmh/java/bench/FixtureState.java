@@ -0,0 +1,21 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/** A benchmark state built around one Fixture, opened by the subclass's @Setup and closed after the trial. */
+public abstract class FixtureState {
+    protected Fixture op;
+
+    @TearDown(Level.Trial)
+    public void closeFixture() throws Exception {
+        if (op != null) op.close();
+    }
+
+    // Name of the running @Benchmark method, for states shared by several of them.
+    static String benchmark(BenchmarkParams params) {
+        String name = params.getBenchmark();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+}
@@ -0,0 +1,43 @@
+package bench;
+
+/**
+ * Builds the fixtures the benchmarks measure, one method per benchmark state.
+ *
+ * JMH only generates benchmarks in a named package, and the programs live in the default package,
+ * which a named package can't import. So the implementation, JmhFixtures, sits in the default
+ * package next to them and is loaded by name; the benchmarks see only this interface. Methods
+ * taking a benchmark name serve several @Benchmark methods and build just what that one needs.
+ */
+public interface Fixtures {
+    static Fixtures get() {
+        try {
+            return (Fixtures) Class.forName("JmhFixtures").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to load JmhFixtures: " + e.getMessage(), e);
+        }
+    }
+
+    Fixture encodeBase62();
+
+    Fixture splitCsvLine(String line);
+
+    Fixture urlShortenerFiles(String benchmark, int rows);
+
+    Fixture engineResolve(boolean metrics) throws Exception;
+
+    Fixture engineShorten() throws Exception;
+
+    Fixture passwords(String benchmark);
+
+    Fixture passwordHistory(String benchmark, int size) throws Exception;
+
+    Fixture breachIndex(int hashes, String lookup) throws Exception;
+
+    Fixture dictionary(String benchmark, int words) throws Exception;
+
+    Fixture studentDatabase(String benchmark, int students);
+
+    Fixture cohortStatistics(String benchmark, int students);
+
+    Fixture timer(int sampleEvery);
+}
@@ -0,0 +1,37 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Metrics.Timer: what one start/stop pair costs, alone and with every core recording. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBench {
+
+    @State(Scope.Benchmark)
+    public static class Timer extends FixtureState {
+        // 1 records every call; 64 samples one call in 64
+        @Param({"1", "64"})
+        public int sampleEvery;
+
+        @Setup
+        public void open() {
+            op = Fixtures.get().timer(sampleEvery);
+        }
+    }
+
+    @Benchmark
+    public void record(Timer s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void recordParallel(Timer s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+}
@@ -0,0 +1,142 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * PasswordStrengthAnalyzer: analysis and scoring, hashing, the password history, the breach index
+ * and the dictionary matcher (against the contains() loop it replaced).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PasswordBench {
+
+    // five sample passwords, and for the scoring benchmarks a 2^20-password random corpus
+    @State(Scope.Benchmark)
+    public static class Samples extends FixtureState {
+        @Setup
+        public void open(BenchmarkParams params) {
+            op = Fixtures.get().passwords(benchmark(params));
+        }
+    }
+
+    // a history file of that many digests, imported into the sorted index on open
+    @State(Scope.Benchmark)
+    public static class History extends FixtureState {
+        @Param({"10000", "1000000"})
+        public int history;
+
+        @Setup
+        public void open(BenchmarkParams params) throws Exception {
+            op = Fixtures.get().passwordHistory(benchmark(params), history);
+        }
+    }
+
+    // An index of random 8-byte hash prefixes; 1000000 is about 10 MB, while
+    // -p hashes=100000000 builds the full-size (~1 GB) one.
+    @State(Scope.Benchmark)
+    public static class Breaches extends FixtureState {
+        @Param({"1000000"})
+        public int hashes;
+
+        // hit: a hash in the index; miss: one that isn't; password: SHA-1 of a password first
+        @Param({"hit", "miss", "password"})
+        public String lookup;
+
+        @Setup
+        public void open() throws Exception {
+            op = Fixtures.get().breachIndex(hashes, lookup);
+        }
+    }
+
+    // a word list of lowercase/digit words of 4-12 characters, like a cracked-password list
+    @State(Scope.Benchmark)
+    public static class Dictionary extends FixtureState {
+        @Param({"1000000"})
+        public int words;
+
+        @Setup
+        public void open(BenchmarkParams params) throws Exception {
+            op = Fixtures.get().dictionary(benchmark(params), words);
+        }
+    }
+
+    // prints its report; the console is silenced for the trial
+    @Benchmark
+    public void analyzePassword(Samples s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    public void analyze(Samples s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void analyzeParallel(Samples s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    // the scoring scoreBits replaced (their agreement is checked by "java PasswordStrengthAnalyzer paritycheck")
+    @Benchmark
+    public void referenceScore(Samples s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    public void scoreBits(Samples s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    public void hashPassword(Samples s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    // a password that isn't in the history, the common case
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void isPasswordUsedBefore(History s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    public void historyContains(History s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    public void breachOccurrences(Breaches s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void dictionaryLoad(Dictionary s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    public void dictionaryFirstMatch(Dictionary s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    public void dictionaryForEachMatch(Dictionary s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    // what analyzePassword used to do: contains() for every word
+    @Benchmark
+    public void dictionaryContainsLoop(Dictionary s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+}
@@ -0,0 +1,144 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * StudentDatabase reads, and cohort statistics over StudentColumns against the same statistics
+ * computed by iterating Student objects (checked to agree when the cohort is built).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StudentDatabaseBench {
+
+    // marks spread evenly over 0..99, so a one-mark window holds about 2% of the students
+    @State(Scope.Benchmark)
+    public static class Db extends FixtureState {
+        @Param({"1000", "10000", "100000"})
+        public int students;
+
+        @Setup
+        public void open(BenchmarkParams params) {
+            op = Fixtures.get().studentDatabase(benchmark(params), students);
+        }
+    }
+
+    // Normally distributed marks over eight hobbies, as Student objects, as StudentColumns, and in a
+    // StudentDatabase where every tenth student was added twice and the copy removed again.
+    @State(Scope.Benchmark)
+    public static class Cohort extends FixtureState {
+        @Param({"1000000"})
+        public int students;
+
+        @Setup
+        public void open(BenchmarkParams params) {
+            op = Fixtures.get().cohortStatistics(benchmark(params), students);
+        }
+    }
+
+    // prints what it finds; the console is silenced for the trial
+    @Benchmark
+    public void searchByName(Db s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    public void studentsWithMarks(Db s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    // k = 10
+    @Benchmark
+    public void topStudents(Db s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    public void rankOfMarks(Db s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    // optimistic reads share no written state, so this should scale with cores
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void rankOfMarksParallel(Db s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void objectsMeanMarks(Cohort s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void columnsMeanMarks(Cohort s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    // p = 90
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void objectsPercentileMarks(Cohort s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void columnsPercentileMarks(Cohort s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void objectsGradeBands(Cohort s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void columnsGradeBands(Cohort s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void objectsGroupByHobby(Cohort s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void columnsGroupByHobby(Cohort s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    // through the database: the columnar loop plus what the read costs
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void statisticsMeanMarks(Cohort s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void statisticsPercentileMarks(Cohort s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+}
@@ -0,0 +1,138 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * URLShortener: code encoding, CSV line parsing, loading and saving the CSV and the binary
+ * snapshot, and Engine shorten/resolve on one thread and on every core.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlShortenerBench {
+
+    @State(Scope.Benchmark)
+    public static class Codec extends FixtureState {
+        @Setup
+        public void open() {
+            op = Fixtures.get().encodeBase62();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class CsvLine extends FixtureState {
+        // plain: no quoting; quoted: a URL with commas and doubled quotes
+        @Param({"plain", "quoted"})
+        public String line;
+
+        @Setup
+        public void open() {
+            op = Fixtures.get().splitCsvLine(line);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Files extends FixtureState {
+        @Param({"10000", "1000000"})
+        public int rows;
+
+        @Setup
+        public void open(BenchmarkParams params) {
+            op = Fixtures.get().urlShortenerFiles(benchmark(params), rows);
+        }
+    }
+
+    // 100000 codes shortened up front; resolve looks up random ones
+    @State(Scope.Benchmark)
+    public static class Seeded extends FixtureState {
+        // false switches the latency timers off, to see what instrumentation costs
+        @Param({"true", "false"})
+        public boolean metrics;
+
+        @Setup
+        public void open() throws Exception {
+            op = Fixtures.get().engineResolve(metrics);
+        }
+    }
+
+    // an engine that every call adds a new URL to
+    @State(Scope.Benchmark)
+    public static class Growing extends FixtureState {
+        @Setup
+        public void open() throws Exception {
+            op = Fixtures.get().engineShorten();
+        }
+    }
+
+    @Benchmark
+    public void encodeBase62(Codec s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    public void splitCsvLine(CsvLine s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void saveToFile(Files s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void readCsv(Files s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void loadCsvParallel(Files s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void saveSnapshot(Files s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void readSnapshot(Files s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    public void resolve(Seeded s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void resolveParallel(Seeded s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    public void shorten(Growing s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void shortenParallel(Growing s, Cursor c, Blackhole bh) throws Exception {
+        bh.consume(s.op.run(c.next()));
+    }
+}
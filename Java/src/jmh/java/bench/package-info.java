@@ -0,0 +1,23 @@
+/**
+ * JMH benchmarks for the hot paths of URLShortener, PasswordStrengthAnalyzer and StudentDatabase.
+ *
+ * - UrlShortenerBench: encodeBase62, splitCsvLine, CSV and snapshot load/save, Engine resolve/shorten
+ * - PasswordBench: analysis, scoring, hashing, the history, the breach index, the dictionary matcher
+ * - StudentDatabaseBench: database reads, and cohort statistics by columns against by objects
+ * - MetricsBench: Metrics.Timer start/stop
+ *
+ * Benchmarks named ...Parallel run on every core (@Threads(Threads.MAX)); the rest on one thread.
+ * The data each one runs against is built in @Setup by the default-package JmhFixtures (see
+ * Fixtures), outside the measurement, and inputs are cycled per thread (Cursor).
+ *
+ * How to run (from the Java directory):
+ * mvn -B package
+ * java -jar target/benchmarks.jar -rf json -rff jmh-result.json [regex]      (all benchmarks, or those matching)
+ * java -jar target/benchmarks.jar -f 1 -wi 1 -i 3 -p rows=10000 'UrlShortenerBench.(save|read)'  (shorter runs, one parameter value)
+ * java -jar target/benchmarks.jar -p hashes=100000000 breachOccurrences     (the full-size, ~1 GB breach index)
+ *
+ * Each class runs 3 warmup and 5 measured 1-second iterations in one fork; -f, -wi, -i, -r and -t
+ * override that. Parameters (-p name=v1,v2): rows, metrics, line, history, hashes, lookup, words,
+ * students, sampleEvery. Compare two runs' jmh-result.json files with any JMH result viewer.
+ */
+package bench;